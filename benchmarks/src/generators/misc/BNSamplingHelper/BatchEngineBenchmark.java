@@ -0,0 +1,43 @@
+package generators.misc.BNSamplingHelper;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// one lockstep sweep of all chains, divide by chains to compare with GibbsEngineBenchmark.sweep
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchEngineBenchmark {
+
+    @Param({"4", "100", "1000"})
+    public int size;
+
+    @Param({"64", "256"})
+    public int chains;
+
+    @Param({"false", "true"})
+    public boolean precompiled;
+
+    private BatchEngine engine;
+
+
+    @Setup
+    public void setup() {
+
+        CompiledNetwork net = SyntheticNetworks.create(size, 3, 42).compile();
+        engine = new BatchEngine(net, chains, 1234);
+        if(precompiled) engine.setConditionals(FullConditionals.compile(net));
+
+        engine.run(100);
+    }
+
+    @Benchmark
+    public void sweep() {
+
+        engine.sweep();
+    }
+}
@@ -0,0 +1,76 @@
+package generators.misc.BNSamplingHelper;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// network setup and the string based lookups of BayesNet, which the animation still uses
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class BayesNetBenchmark {
+
+    // 10000 nodes need a 400 MB adjacency matrix
+    @Param({"4", "100", "1000", "10000"})
+    public int size;
+
+    private SyntheticNetworks network;
+    private int[][] adjacencyMatrix;
+    private double[][] columns;
+    private BayesNet bn;
+    private String var;
+
+
+    @Setup
+    public void setup() {
+
+        network = SyntheticNetworks.create(size, 3, 42);
+        adjacencyMatrix = network.adjacencyMatrix();
+        columns = network.columns();
+
+        bn = init();
+        var = network.vars[network.vars.length - 1];
+    }
+
+    @Benchmark
+    public BayesNet init() {
+
+        BayesNet bn = new BayesNet();
+        bn.init(network.vars, network.sampleVars, adjacencyMatrix, network.evidenceValues, columns);
+
+        return bn;
+    }
+
+    @Benchmark
+    public CompiledNetwork compile() {
+
+        return CompiledNetwork.compile(bn);
+    }
+
+    @Benchmark
+    public CompiledNetwork load() {
+
+        return network.compile();
+    }
+
+    @Benchmark
+    public String key() {
+
+        return bn.key(var, bn.parents(var));
+    }
+
+    @Benchmark
+    public String[] parents() {
+
+        return bn.parents(var);
+    }
+
+    @Benchmark
+    public String[] children() {
+
+        return bn.children(network.vars[0]);
+    }
+}
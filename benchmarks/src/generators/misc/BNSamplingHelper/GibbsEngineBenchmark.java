@@ -0,0 +1,80 @@
+package generators.misc.BNSamplingHelper;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// hot path of the sampler, run with -prof gc to see the allocation rate
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GibbsEngineBenchmark {
+
+    @Param({"4", "100", "1000", "10000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean precompiled;
+
+    private CompiledNetwork net;
+    private GibbsEngine engine;
+    private SampleCounts counts;
+    private int next;
+
+
+    @Setup
+    public void setup() {
+
+        net = SyntheticNetworks.create(size, 3, 42).compile();
+        engine = new GibbsEngine(net, new Xoshiro256(1234));
+        if(precompiled) engine.setConditionals(FullConditionals.compile(net));
+
+        counts = new SampleCounts(new String[net.getSampleVars().length]);
+
+        // start from a state of the stationary distribution
+        engine.run(100);
+    }
+
+    private int nextSampleVar() {
+
+        next = next + 1 == net.getSampleVars().length ? 0 : next + 1;
+        return next;
+    }
+
+    @Benchmark
+    public boolean update() {
+
+        return engine.update(nextSampleVar());
+    }
+
+    @Benchmark
+    public void sweep() {
+
+        engine.sweep();
+    }
+
+    @Benchmark
+    public double cptLookup() {
+
+        int var = net.getSampleVars()[nextSampleVar()];
+        return net.cpt(var, net.parentIndex(engine.getState(), var));
+    }
+
+    @Benchmark
+    public double conditional() {
+
+        return engine.conditional(net.getSampleVars()[nextSampleVar()]);
+    }
+
+    @Benchmark
+    public void counterUpdate(Blackhole bh) {
+
+        int i = nextSampleVar();
+        counts.increment(i, (i & 1) == 0);
+        bh.consume(counts);
+    }
+}
@@ -0,0 +1,243 @@
+package generators.misc.BNSamplingHelper;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/*
+ * Runnable checks of properties the samplers guarantee, for the cases that are easy to break
+ * and hard to see in the animation. Exits with status 1 if a check fails.
+ */
+public class SelfCheck {
+
+    private static int failed = 0;
+
+
+    public static void main(String[] args) throws Exception {
+
+        blockWithManyChildren();
+        mappedEqualsHeap();
+        checkpointResume();
+        seek();
+
+        if(failed > 0) {
+            System.out.println(failed + " check(s) failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    private static void check(String name, boolean passed, String detail) {
+
+        System.out.println((passed ? "ok     " : "FAILED ") + name + (detail.isEmpty() ? "" : ": " + detail));
+        if(!passed) failed++;
+    }
+
+    /*
+     * Two non-evidence parents, jointly sampled as one block, with 400 evidence children. The product
+     * of the children's CPT entries underflows in linear space, the block must still follow the exact
+     * posterior instead of falling back to a fixed state.
+     */
+    private static void blockWithManyChildren() {
+
+        int children = 400;
+        double[] childTable = {0.01, 0.02, 0.02, 0.04};
+
+        // all children true: P1 = P2 = false is (0.04 / 0.02)^400 times more likely than any other state
+        boolean[] allTrue = new boolean[children];
+        Arrays.fill(allTrue, true);
+        blockWithManyChildren("block, 400 children all true", childTable, allTrue);
+
+        // every 50th child true: all four states have noticeable mass
+        boolean[] mixed = new boolean[children];
+        for(int c = 0; c < children; c += 50) mixed[c] = true;
+        blockWithManyChildren("block, 400 children mixed", childTable, mixed);
+    }
+
+    private static void blockWithManyChildren(String name, double[] childTable, boolean[] evidence) {
+
+        int n = 2 + evidence.length;
+        String[] vars = new String[n];
+        int[][] parents = new int[n][];
+        double[][] tables = new double[n][];
+        boolean[] values = new boolean[n];
+
+        vars[0] = "P1"; vars[1] = "P2";
+        parents[0] = new int[0]; parents[1] = new int[0];
+        tables[0] = new double[]{0.5}; tables[1] = new double[]{0.5};
+        for(int c = 0; c < evidence.length; c++) {
+            vars[2 + c] = "C" + c;
+            parents[2 + c] = new int[]{0, 1};
+            tables[2 + c] = childTable;
+            values[2 + c] = evidence[c];
+        }
+
+        CompiledNetwork net = CompiledNetwork.load(vars, parents, tables, new int[]{0, 1}, values);
+
+        // exact posterior, rows of the child table in truth table order: (true, true), (true, false), ...
+        double[] log = new double[4];
+        double max = Double.NEGATIVE_INFINITY;
+        for(int row = 0; row < 4; row++) {
+            for(boolean value: evidence) {
+                log[row] += Math.log(value ? childTable[row] : 1 - childTable[row]);
+            }
+            max = Math.max(max, log[row]);
+        }
+        double total = 0;
+        for(int row = 0; row < 4; row++) total += Math.exp(log[row] - max);
+        double p1 = (Math.exp(log[0] - max) + Math.exp(log[1] - max)) / total;
+        double p2 = (Math.exp(log[0] - max) + Math.exp(log[2] - max)) / total;
+
+        GibbsEngine engine = new GibbsEngine(net, new Xoshiro256(1234));
+        engine.setBlocks(Blocks.of(net, new String[]{"P1", "P2"}));
+        engine.run(100000);
+
+        double s1 = engine.getCounts().getNormalized(0, true);
+        double s2 = engine.getCounts().getNormalized(1, true);
+        check(name, Math.abs(s1 - p1) < 0.01 && Math.abs(s2 - p2) < 0.01,
+                String.format("P1=true %.4f (exact %.4f), P2=true %.4f (exact %.4f)", s1, p1, s2, p2));
+    }
+
+    /*
+     * Tables streamed with MappedTables.Writer, without a compiled network, must give the same file as
+     * MappedTables.write of the heap network, and sampling from them must be bit-identical to the heap tables.
+     */
+    private static void mappedEqualsHeap() throws Exception {
+
+        SyntheticNetworks synthetic = SyntheticNetworks.create(1000, 3, 42);
+        CompiledNetwork heap = synthetic.compile();
+
+        Path streamed = Files.createTempFile("tables", ".bin");
+        Path written = Files.createTempFile("tables", ".bin");
+        try {
+            try(MappedTables.Writer writer = new MappedTables.Writer(streamed, synthetic.vars.length)) {
+                for(double[] table: synthetic.tables) writer.add(table);
+            }
+            MappedTables.write(written, heap);
+            check("mapped tables, streamed file equals written file",
+                    Arrays.equals(Files.readAllBytes(streamed), Files.readAllBytes(written)), "");
+
+            int edges = 0;
+            for(int[] parents: synthetic.parents) edges += parents.length;
+            int[] from = new int[edges];
+            int[] to = new int[edges];
+            for(int var = 0, e = 0; var < synthetic.parents.length; var++) {
+                for(int parent: synthetic.parents[var]) {
+                    from[e] = parent;
+                    to[e++] = var;
+                }
+            }
+            CompiledNetwork mapped = CompiledNetwork.load(synthetic.vars, from, to, MappedTables.open(streamed),
+                    heap.getSampleVars(), synthetic.values);
+
+            GibbsEngine onHeap = new GibbsEngine(heap, new Xoshiro256(3));
+            GibbsEngine offHeap = new GibbsEngine(mapped, new Xoshiro256(3));
+            onHeap.run(2000);
+            offHeap.run(2000);
+            check("mapped tables, GibbsEngine equals heap",
+                    onHeap.getSamples().equals(offHeap.getSamples())
+                            && Arrays.equals(onHeap.getState().words(), offHeap.getState().words()), "");
+
+            BatchEngine batchOnHeap = new BatchEngine(heap, 64, 3);
+            BatchEngine batchOffHeap = new BatchEngine(mapped, 64, 3);
+            batchOnHeap.run(200);
+            batchOffHeap.run(200);
+            check("mapped tables, BatchEngine equals heap",
+                    batchOnHeap.getCounts().getSamples().equals(batchOffHeap.getCounts().getSamples()), "");
+        } finally {
+            Files.deleteIfExists(streamed);
+            Files.deleteIfExists(written);
+        }
+    }
+
+    /*
+     * A run that is stopped after its last checkpoint and resumed from the file in a new engine must end
+     * bit-identical to an uninterrupted run: counts, state, diagnostics and the random number generator.
+     */
+    private static void checkpointResume() throws Exception {
+
+        CompiledNetwork net = SyntheticNetworks.create(1000, 3, 42).compile();
+
+        GibbsEngine straight = new GibbsEngine(net, new Xoshiro256(9));
+        straight.setBurnIn(30);
+        straight.setThinning(2);
+        straight.enableDiagnostics();
+        straight.run(1000);
+
+        Path file = Files.createTempFile("checkpoint", ".bin");
+        try {
+            // interrupted after 550 sweeps, the last checkpoint is the one of sweep 500
+            GibbsEngine interrupted = new GibbsEngine(net, new Xoshiro256(9));
+            interrupted.setBurnIn(30);
+            interrupted.setThinning(2);
+            interrupted.enableDiagnostics();
+            try(Checkpointer checkpointer = new Checkpointer(interrupted, file, 100)) {
+                checkpointer.run(550);
+            }
+
+            GibbsEngine resumed = new GibbsEngine(net, new Xoshiro256(1));
+            Checkpoint checkpoint = Checkpointer.resume(file, resumed, net);
+            resumed.run(1000 - checkpoint.getIteration());
+
+            boolean sameEss = true;
+            for(int i = 0; i < straight.getMonitor().size(); i++) {
+                sameEss &= straight.getMonitor().ess(i) == resumed.getMonitor().ess(i);
+            }
+            check("checkpoint resume is bit-identical",
+                    checkpoint.getIteration() == 500
+                            && straight.getSamples().equals(resumed.getSamples())
+                            && Arrays.equals(straight.getState().words(), resumed.getState().words())
+                            && sameEss
+                            && straight.getRandom().nextLong() == resumed.getRandom().nextLong(),
+                    "resumed at sweep " + checkpoint.getIteration());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /*
+     * Seeking backwards and forwards over the snapshots must end in the same chain as sweeping to the
+     * target from the start, and must keep enabled diagnostics.
+     */
+    private static void seek() {
+
+        CompiledNetwork net = SyntheticNetworks.create(1000, 3, 42).compile();
+
+        GibbsEngine seeking = new GibbsEngine(net, new Xoshiro256(9));
+        seeking.setBurnIn(30);
+        seeking.setSnapshotInterval(500);
+        seeking.run(3000);
+
+        GibbsEngine straight = new GibbsEngine(net, new Xoshiro256(9));
+        straight.setBurnIn(30);
+
+        seeking.seek(1234);
+        straight.run(1234);
+        check("seek backwards equals sweeping", sameChain(seeking, straight), "");
+
+        // jumps over the snapshots of sweeps 1500 .. 2500
+        seeking.seek(2600);
+        straight.run(2600 - 1234);
+        check("seek forwards equals sweeping", sameChain(seeking, straight), "");
+
+        // with diagnostics all sweeps are recorded instead of jumping to a later snapshot
+        seeking.seek(0);
+        seeking.enableDiagnostics();
+        GibbsEngine recorded = new GibbsEngine(net, new Xoshiro256(9));
+        recorded.setBurnIn(30);
+        recorded.enableDiagnostics();
+        seeking.seek(2600);
+        recorded.run(2600);
+        boolean sameEss = seeking.getMonitor() != null && seeking.getMonitor().getSweeps() == recorded.getMonitor().getSweeps();
+        for(int i = 0; sameEss && i < recorded.getMonitor().size(); i++) {
+            sameEss = seeking.getMonitor().ess(i) == recorded.getMonitor().ess(i);
+        }
+        check("seek forwards keeps the diagnostics", sameChain(seeking, recorded) && sameEss, "");
+    }
+
+    private static boolean sameChain(GibbsEngine a, GibbsEngine b) {
+
+        return a.getIteration() == b.getIteration() && a.getSamples().equals(b.getSamples())
+                && Arrays.equals(a.getState().words(), b.getState().words());
+    }
+}
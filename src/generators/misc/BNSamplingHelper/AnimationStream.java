@@ -0,0 +1,49 @@
+package generators.misc.BNSamplingHelper;
+
+import algoanim.primitives.generators.Language;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/*
+ * Writes an animation to a Writer while it is generated: flush() appends the part of lang.toString()
+ * that was not written yet, e.g. after every step. The language itself is not changed, so the result
+ * is exactly its toString(), as long as that only grows at the end. This is checked on the characters
+ * written last.
+ */
+public class AnimationStream {
+
+    // characters at the end of the written output that are compared on every flush
+    private static final int CHECKED = 256;
+
+    private Language lang;
+    private Writer out;
+
+    private int written = 0;
+    private String tail = "";
+
+
+    public AnimationStream(Language lang, Writer out) {
+
+        this.lang = lang;
+        this.out = out;
+    }
+
+    public void flush() {
+
+        String script = lang.toString();
+        if(script.length() < written || !script.startsWith(tail, written - tail.length()))
+            throw new IllegalStateException("The animation changed after it was written.");
+
+        try {
+            out.write(script, written, script.length() - written);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        written = script.length();
+        tail = script.substring(Math.max(0, written - CHECKED));
+    }
+}
@@ -0,0 +1,423 @@
+package generators.misc.BNSamplingHelper;
+
+/*
+ * Advances a batch of independent chains in lockstep over the same variable order. The state is
+ * column-major: bit b of state[var * words + w] is the value of var in chain 64 * w + b, so one
+ * update handles 64 chains with branch-free loops over the lanes that the JIT can vectorize.
+ *
+ * Variables with a small markov blanket are updated bit-sliced, without any per lane work: the lanes
+ * are split into one mask per blanket assignment (row), the probability is looked up or computed once
+ * per non-empty row, and all lanes are drawn together by comparing random words with the bits of the
+ * probabilities, most significant first. Most lanes are decided after a few bits.
+ */
+public class BatchEngine {
+
+    public static final int LANES = Long.SIZE;
+
+    // blankets up to this size are updated bit-sliced, 2^6 rows are as many masks as lanes
+    public static final int SLICED_BITS = 6;
+
+    // probability 1 as 53 bit fixed point number
+    private static final long ONE = 1L << 53;
+
+    private CompiledNetwork net;
+    private int[] sampleVars;
+    private long seed;
+
+    // optional precompiled full conditionals, null: computed on the fly
+    private FullConditionals conditionals;
+
+    private int words;
+    private long[] state;
+
+    // counts of all chains together
+    private SampleCounts counts;
+
+    private int iteration = 0;
+    private int burnIn = 0;
+    private int thinning = 1;
+
+    // heap log tables of all variables, looked up once instead of per lane, null if mapped
+    private double[][] logTables;
+
+    // scratch arrays, one entry per lane
+    private final int[] index = new int[LANES];
+    private final double[] p = new double[LANES];
+    private final double[] logTrue = new double[LANES];
+    private final double[] logFalse = new double[LANES];
+    private final double[] u = new double[LANES];
+
+    // bit-sliced update: lanes with blanket assignment r in masks[r], P(var=true | r) = fixed[r] / 2^53
+    private final long[] masks = new long[1 << SLICED_BITS];
+    private final long[] fixed = new long[1 << SLICED_BITS];
+
+
+    public BatchEngine(CompiledNetwork net, int chains, long seed) {
+
+        if(chains <= 0 || chains % LANES != 0)
+            throw new IllegalArgumentException("The number of chains must be a positive multiple of " + LANES + ".");
+
+        this.net = net;
+        this.sampleVars = net.getSampleVars();
+        this.seed = seed;
+        this.words = chains / LANES;
+
+        // every chain starts in the initial state of the network
+        ChainState initial = net.newState();
+        state = new long[net.size() * words];
+        for(int var = 0; var < net.size(); var++) {
+            for(int w = 0; w < words; w++) {
+                state[var * words + w] = initial.get(var) ? -1L : 0L;
+            }
+        }
+
+        String[] names = new String[sampleVars.length];
+        for(int i = 0; i < names.length; i++) {
+            names[i] = net.name(sampleVars[i]);
+        }
+        this.counts = new SampleCounts(names);
+
+        logTables = new double[net.size()][];
+        for(int var = 0; var < net.size(); var++) {
+            logTables[var] = net.logTable(var);
+        }
+    }
+
+    public void run(int sweeps) {
+
+        for(int i = 0; i < sweeps; i++) {
+            sweep();
+        }
+    }
+
+    public void sweep() {
+
+        if(!SamplerEvents.isSweepEnabled()) {
+            step();
+            return;
+        }
+
+        SamplerEvents.Sweep event = new SamplerEvents.Sweep();
+        event.begin();
+
+        step();
+
+        event.end();
+        if(event.shouldCommit()) {
+            event.networkSize = net.size();
+            event.chain = 0;
+            event.chains = words * LANES;
+            event.iteration = iteration;
+            event.commit();
+        }
+    }
+
+    private void step() {
+
+        iteration++;
+        boolean counted = isCounted();
+
+        for(int i = 0; i < sampleVars.length; i++) {
+            int var = sampleVars[i];
+            for(int w = 0; w < words; w++) {
+                long word = sampleWord(var, w);
+                state[var * words + w] = word;
+                if(counted) counts.add(i, Long.bitCount(word), LANES);
+            }
+        }
+    }
+
+    // same rule as GibbsEngine
+    public boolean isCounted() {
+
+        return iteration > burnIn && (iteration - burnIn) % thinning == 0;
+    }
+
+    public void setBurnIn(int burnIn) {
+
+        if(burnIn < 0)
+            throw new IllegalArgumentException("BurnIn must not be negative.");
+
+        this.burnIn = burnIn;
+    }
+
+    public void setThinning(int thinning) {
+
+        if(thinning < 1)
+            throw new IllegalArgumentException("Thinning must be greater than 0.");
+
+        this.thinning = thinning;
+    }
+
+    // new values of var in the 64 chains of word w
+    private long sampleWord(int var, int w) {
+
+        double[] table = conditionals == null ? null : conditionals.table(var);
+
+        int from = net.blanketStart(var);
+        int to = net.blanketEnd(var);
+        if(to - from <= SLICED_BITS) return sampleSliced(var, w, table, from, to);
+
+        if(table != null) {
+            gather(net.blanketIds(), net.blanketStart(var), net.blanketEnd(var), w);
+            for(int b = 0; b < LANES; b++) {
+                p[b] = table[index[b]];
+            }
+        } else {
+            conditional(var, w);
+        }
+
+        uniforms(var * (long) words + w);
+
+        // u <= p  <=>  sign bit of p - u is 0
+        long word = 0;
+        for(int b = 0; b < LANES; b++) {
+            word |= (1L - (Double.doubleToRawLongBits(p[b] - u[b]) >>> 63)) << b;
+        }
+
+        return word;
+    }
+
+    // bit-sliced update of the lanes of word w, table is null to compute the probabilities
+    private long sampleSliced(int var, int w, double[] table, int from, int to) {
+
+        int rows = rowMasks(net.blanketIds(), from, to, w);
+        for(int r = 0; r < rows; r++) {
+            if(masks[r] == 0) {
+                fixed[r] = 0;
+                continue;
+            }
+            double p = table != null ? table[r] : conditional(var, w, Long.numberOfTrailingZeros(masks[r]));
+            fixed[r] = p >= 1 ? ONE : p > 0 ? (long) Math.ceil(p * 0x1.0p53) : 0;
+        }
+
+        return bernoulli(var * (long) words + w, rows);
+    }
+
+    // masks[r] = lanes of word w whose assignment of vars[from .. to) is r, bit j of r is the value of vars[from + j]
+    private int rowMasks(int[] vars, int from, int to, int w) {
+
+        masks[0] = -1L;
+        int rows = 1;
+        for(int j = from; j < to; j++) {
+            long word = state[vars[j] * words + w];
+            for(int r = 0; r < rows; r++) {
+                masks[r + rows] = masks[r] & word;
+                masks[r] &= ~word;
+            }
+            rows *= 2;
+        }
+
+        return rows;
+    }
+
+    /*
+     * Draws all lanes at once: a lane in masks[r] is true iff x < fixed[r] for a uniform 53 bit number x.
+     * x is generated bit by bit from the most significant one, one random word for all lanes per bit,
+     * and a lane is decided at the first bit where x and its probability differ. The random words are
+     * SplitMix64 steps from the same counter based state as uniforms().
+     */
+    private long bernoulli(long stream, int rows) {
+
+        long z = seed + iteration * 0x9E3779B97F4A7C15L + (stream + 1) * 0xD1B54A32D192ED03L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+
+        long word = 0;
+        long undecided = -1L;
+        for(int r = 0; r < rows; r++) {
+            if(fixed[r] == ONE) {
+                word |= masks[r];
+                undecided &= ~masks[r];
+            }
+        }
+
+        for(int k = 52; k >= 0 && undecided != 0; k--) {
+
+            long x = z + (53 - k) * 0x9E3779B97F4A7C15L;
+            x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+            x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+            x = x ^ (x >>> 31);
+
+            // bit k of the probability of every lane
+            long bits = 0;
+            for(int r = 0; r < rows; r++) {
+                bits |= masks[r] & -((fixed[r] >>> k) & 1L);
+            }
+
+            word |= undecided & bits & ~x;
+            undecided &= ~(bits ^ x);
+        }
+
+        // lanes still undecided have x == fixed and stay false
+        return word;
+    }
+
+    // one SplitMix64 step per lane, starting from a counter based state per (seed, sweep, word)
+    private void uniforms(long stream) {
+
+        long z = seed + iteration * 0x9E3779B97F4A7C15L + (stream + 1) * 0xD1B54A32D192ED03L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+
+        for(int b = 0; b < LANES; b++) {
+            long x = z + (b + 1) * 0x9E3779B97F4A7C15L;
+            x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+            x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+            x = x ^ (x >>> 31);
+            u[b] = (x >>> 11) * 0x1.0p-53;
+        }
+    }
+
+    // index[b] = assignment of vars[from .. to) in chain b of word w, bit j is the value of vars[from + j]
+    private void gather(int[] vars, int from, int to, int w) {
+
+        for(int b = 0; b < LANES; b++) {
+            index[b] = 0;
+        }
+        for(int j = from; j < to; j++) {
+            long word = state[vars[j] * words + w];
+            int shift = j - from;
+            for(int b = 0; b < LANES; b++) {
+                index[b] |= (int) ((word >>> b) & 1L) << shift;
+            }
+        }
+    }
+
+    // same as CompiledNetwork.conditional, for all lanes of word w
+    private void conditional(int var, int w) {
+
+        if(logTables[var] == null) {
+            conditionalMapped(var, w);
+            return;
+        }
+
+        int[] parentIds = net.parentIds();
+        gather(parentIds, net.parentStart(var), net.parentEnd(var), w);
+        double[] table = logTables[var];
+        for(int b = 0; b < LANES; b++) {
+            logTrue[b] = table[2 * index[b] + 1];
+            logFalse[b] = table[2 * index[b]];
+        }
+
+        int[] children = net.childIds();
+        int[] slots = net.childSlots();
+        for(int c = net.childStart(var); c < net.childEnd(var); c++) {
+
+            int child = children[c];
+            int bit = 1 << slots[c];
+            long values = state[child * words + w];
+
+            gather(parentIds, net.parentStart(child), net.parentEnd(child), w);
+            double[] childTable = logTables[child];
+            for(int b = 0; b < LANES; b++) {
+                int x = (int) (values >>> b) & 1;
+                logTrue[b] += childTable[2 * (index[b] | bit) + x];
+                logFalse[b] += childTable[2 * (index[b] & ~bit) + x];
+            }
+        }
+
+        for(int b = 0; b < LANES; b++) {
+            p[b] = CompiledNetwork.logistic(logTrue[b] - logFalse[b]);
+        }
+    }
+
+    // same as CompiledNetwork.conditional, for lane b of word w only
+    private double conditional(int var, int w, int b) {
+
+        int[] parentIds = net.parentIds();
+        int index = laneIndex(parentIds, net.parentStart(var), net.parentEnd(var), w, b);
+        double logTrue = logCpt(var, 2 * index + 1);
+        double logFalse = logCpt(var, 2 * index);
+
+        int[] children = net.childIds();
+        int[] slots = net.childSlots();
+        for(int c = net.childStart(var); c < net.childEnd(var); c++) {
+
+            int child = children[c];
+            int bit = 1 << slots[c];
+            int childIndex = laneIndex(parentIds, net.parentStart(child), net.parentEnd(child), w, b) & ~bit;
+            int value = (int) (state[child * words + w] >>> b) & 1;
+            logTrue += logCpt(child, 2 * (childIndex | bit) + value);
+            logFalse += logCpt(child, 2 * childIndex + value);
+        }
+
+        return CompiledNetwork.logistic(logTrue - logFalse);
+    }
+
+    // assignment of vars[from .. to) in lane b of word w, bit j is the value of vars[from + j]
+    private int laneIndex(int[] vars, int from, int to, int w, int b) {
+
+        int index = 0;
+        for(int j = from; j < to; j++) {
+            index |= (int) (state[vars[j] * words + w] >>> b & 1L) << (j - from);
+        }
+
+        return index;
+    }
+
+    // heap tables directly, tables in a MappedTables file through the network
+    private double logCpt(int var, int i) {
+
+        double[] table = logTables[var];
+        return table != null ? table[i] : net.logCpt(var, i);
+    }
+
+    // tables in a MappedTables file, every entry is read through the network
+    private void conditionalMapped(int var, int w) {
+
+        int[] parentIds = net.parentIds();
+        gather(parentIds, net.parentStart(var), net.parentEnd(var), w);
+        for(int b = 0; b < LANES; b++) {
+            logTrue[b] = net.logCpt(var, 2 * index[b] + 1);
+            logFalse[b] = net.logCpt(var, 2 * index[b]);
+        }
+
+        int[] children = net.childIds();
+        int[] slots = net.childSlots();
+        for(int c = net.childStart(var); c < net.childEnd(var); c++) {
+
+            int child = children[c];
+            int bit = 1 << slots[c];
+            long values = state[child * words + w];
+
+            gather(parentIds, net.parentStart(child), net.parentEnd(child), w);
+            for(int b = 0; b < LANES; b++) {
+                int x = (int) (values >>> b) & 1;
+                logTrue[b] += net.logCpt(child, 2 * (index[b] | bit) + x);
+                logFalse[b] += net.logCpt(child, 2 * (index[b] & ~bit) + x);
+            }
+        }
+
+        for(int b = 0; b < LANES; b++) {
+            p[b] = CompiledNetwork.logistic(logTrue[b] - logFalse[b]);
+        }
+    }
+
+    public boolean getValue(int chain, int var) {
+
+        return (state[var * words + chain / LANES] & (1L << chain)) != 0;
+    }
+
+    public int getNumberOfChains() {
+
+        return words * LANES;
+    }
+
+    public int getIteration() {
+
+        return iteration;
+    }
+
+    public SampleCounts getCounts() {
+
+        return counts;
+    }
+
+    public void setConditionals(FullConditionals conditionals) {
+
+        this.conditionals = conditionals;
+    }
+}
@@ -10,6 +10,7 @@ import generators.framework.properties.AnimationPropertiesContainer;
 
 import java.awt.*;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Hashtable;
 
 public class BayesNet {
@@ -29,16 +30,30 @@ public class BayesNet {
     private String [] vars;
     private String [] sampleVars;
 
-    // hashtables, containing probabilities and values of random variables
-    public Hashtable<String, Double> probabilities;
+    // topology, computed once in init
+    private HashMap<String, Integer> ids;
+    private String[][] parents;
+    private String[][] children;
+
+    // hashtables, containing probabilities and values of random variables,
+    // the string keyed probabilities are only built when getProbabilities() is called
+    private Hashtable<String, Double> probabilities;
     public Hashtable<String, Boolean> values;
 
+    // P(var=true | parents) as one row-major table per variable
+    private double[][] tables;
+
+
+    // headless network without animation output, e.g. for the GibbsEngine
+    public BayesNet() {
+
+        this(null);
+    }
 
     public BayesNet(Language lang) {
 
         this.lang = lang;
         this.values = new Hashtable<>();
-        this.probabilities = new Hashtable<>();
     }
 
     public void init(Hashtable<String, Object> primitives, GraphProperties props, String[] vars, String[] samplesVars) {
@@ -46,22 +61,30 @@ public class BayesNet {
         this.graph = (Graph) primitives.get("graph");
         this.props = props;
 
+        // init colors
+        HIGHLIGHT_COLOR = (Color) primitives.get("Highlight Color");
+        SELECT_COLOR = (Color) primitives.get("Select Color");
+        TRUE_COLOR = (Color) primitives.get("True Color");
+        FALSE_COLOR = (Color) primitives.get("False Color");
+
+        init(vars, samplesVars, graph.getAdjacencyMatrix(),
+                (String[]) primitives.get("Values"), toProbabilities(primitives.get("Probabilities")));
+    }
+
+    // p contains one column per variable, see tables for the order of the rows
+    public void init(String[] vars, String[] samplesVars, int[][] adjacencyMatrix, String[] v, double[][] p) {
+
         this.vars = vars;
         this.sampleVars = samplesVars;
-        this.adjacencyMatrix = graph.getAdjacencyMatrix();
+        this.adjacencyMatrix = adjacencyMatrix;
+
+        initTopology();
 
         for(String var: vars) {
             values.put(var, false);
         }
 
-        // init colors
-        HIGHLIGHT_COLOR = (Color) primitives.get("Highlight Color");
-        SELECT_COLOR = (Color) primitives.get("Select Color");
-        TRUE_COLOR = (Color) primitives.get("True Color");
-        FALSE_COLOR = (Color) primitives.get("False Color");
-
-        // init values and probabilities
-        String[] v = (String[]) primitives.get("Values");
+        // init values
         int id = 0;
         for(String var: vars) {
             if(Arrays.asList(sampleVars).contains(var)) continue;
@@ -70,79 +93,58 @@ public class BayesNet {
             values.put(var, value);
         }
 
-        int[][] p = (int[][]) primitives.get("Probabilities");
+        // one row-major table per variable, rows alternate like a truth table over the parents
+        // (parents in variable order, first parent changes slowest, true before false)
+        tables = new double[vars.length][];
+        for(int i = 0; i < vars.length; i++) {
+
+            double[] table = new double[1 << parents[i].length];
+            for(int row = 0; row < table.length; row++) {
+                table[row] = p[row][i];
+            }
+            tables[i] = table;
+        }
+        probabilities = null;
+    }
+
+    // P(var | parents) of every table row, keyed like key(var, null, values, parents)
+    public Hashtable<String, Double> getProbabilities() {
 
+        if(probabilities != null) return probabilities;
+
+        probabilities = new Hashtable<>();
         for(int i = 0; i < vars.length; i++) {
+
             String var = int2node(i);
             String[] parents = parents(var);
-            Hashtable<String, Boolean> values;
-            switch(parents.length) {
-                case 0:
-                    probabilities.put(key(var), p[0][i] / 100.0);
-                    break;
-
-                case 1:
-                    values = new Hashtable<>();
-                    values.put(parents[0], true);
-                    probabilities.put(key(var, null, values, parents), p[0][i] / 100.0);
-                    values.put(parents[0], false);
-                    probabilities.put(key(var, null, values, parents), p[1][i] / 100.0);
-                    break;
-
-                case 2:
-                    values = new Hashtable<>();
-                    values.put(parents[0], true);
-                    values.put(parents[1], true);
-                    probabilities.put(key(var, null, values, parents), p[0][i] / 100.0);
-                    values.put(parents[0], true);
-                    values.put(parents[1], false);
-                    probabilities.put(key(var, null, values, parents), p[1][i] / 100.0);
-                    values.put(parents[0], false);
-                    values.put(parents[1], true);
-                    probabilities.put(key(var, null, values, parents), p[2][i] / 100.0);
-                    values.put(parents[0], false);
-                    values.put(parents[1], false);
-                    probabilities.put(key(var, null, values, parents), p[3][i] / 100.0);
-                    break;
-
-                default: // case 3
-                    values = new Hashtable<>();
-                    values.put(parents[0], true);
-                    values.put(parents[1], true);
-                    values.put(parents[2], true);
-                    probabilities.put(key(var, null, values, parents), p[0][i] / 100.0);
-                    values.put(parents[0], true);
-                    values.put(parents[1], true);
-                    values.put(parents[2], false);
-                    probabilities.put(key(var, null, values, parents), p[1][i] / 100.0);
-                    values.put(parents[0], true);
-                    values.put(parents[1], false);
-                    values.put(parents[2], true);
-                    probabilities.put(key(var, null, values, parents), p[2][i] / 100.0);
-                    values.put(parents[0], true);
-                    values.put(parents[1], false);
-                    values.put(parents[2], false);
-                    probabilities.put(key(var, null, values, parents), p[3][i] / 100.0);
-
-                    values.put(parents[0], false);
-                    values.put(parents[1], true);
-                    values.put(parents[2], true);
-                    probabilities.put(key(var, null, values, parents), p[4][i] / 100.0);
-                    values.put(parents[0], false);
-                    values.put(parents[1], true);
-                    values.put(parents[2], false);
-                    probabilities.put(key(var, null, values, parents), p[5][i] / 100.0);
-                    values.put(parents[0], false);
-                    values.put(parents[1], false);
-                    values.put(parents[2], true);
-                    probabilities.put(key(var, null, values, parents), p[6][i] / 100.0);
-                    values.put(parents[0], false);
-                    values.put(parents[1], false);
-                    values.put(parents[2], false);
-                    probabilities.put(key(var, null, values, parents), p[7][i] / 100.0);
-                    break;
+            Hashtable<String, Boolean> values = new Hashtable<>();
+
+            for(int row = 0; row < tables[i].length; row++) {
+                for(int j = 0; j < parents.length; j++) {
+                    values.put(parents[j], (row & (1 << (parents.length - 1 - j))) == 0);
+                }
+                probabilities.put(key(var, null, values, parents), tables[i][row]);
             }
         }
+
+        return probabilities;
+    }
+
+    // the primitive is either a matrix of percentages (int) or of probabilities (double)
+    public static double[][] toProbabilities(Object p) {
+
+        if(p instanceof double[][]) return (double[][]) p;
+
+        int[][] percentages = (int[][]) p;
+        double[][] probabilities = new double[percentages.length][];
+        for(int i = 0; i < percentages.length; i++) {
+            probabilities[i] = new double[percentages[i].length];
+            for(int j = 0; j < percentages[i].length; j++) {
+                probabilities[i][j] = percentages[i][j] / 100.0;
+            }
+        }
+
+        return probabilities;
     }
 
     public void add() {
@@ -176,11 +178,9 @@ public class BayesNet {
     }
 
     public int node2int(String node) {
-        for(int i = 0; i < vars.length; i++) {
-            if(vars[i].equals(node)) return i;
-        }
 
-        return -1;
+        Integer id = ids.get(node);
+        return id == null ? -1 : id;
     }
 
     public String int2node(int id) {
@@ -188,40 +188,62 @@ public class BayesNet {
         return vars[id];
     }
 
-    public String[] parents(String var) {
+    public String[] getVars() {
 
-        int id = node2int(var);
-        String[] tmp = new String[vars.length];
-        int count = 0;
+        return vars;
+    }
 
-        for(int i = 0; i < adjacencyMatrix.length; i++) {
-            if(adjacencyMatrix[i][id] != 0) {
-                tmp[count] = int2node(i);
-                count++;
-            }
-        }
-        String[] parents = new String[count];
-        for(int k = 0; k < count; k++) parents[k] = tmp[k];
+    public String[] getSampleVars() {
 
-        return parents;
+        return sampleVars;
     }
 
-    public String[] children(String var) {
+    public int[][] getAdjacencyMatrix() {
+
+        return adjacencyMatrix;
+    }
+
+    public double[][] getTables() {
 
-        int id = node2int(var);
+        return tables;
+    }
+
+    private void initTopology() {
+
+        ids = new HashMap<>();
+        for(int i = 0; i < vars.length; i++) {
+            ids.put(vars[i], i);
+        }
+
+        parents = new String[vars.length][];
+        children = new String[vars.length][];
         String[] tmp = new String[vars.length];
-        int count = 0;
 
-        for(int i = 0; i < adjacencyMatrix[id].length; i++) {
-            if(adjacencyMatrix[id][i] != 0) {
-                tmp[count] = int2node(i);
-                count++;
+        for(int id = 0; id < vars.length; id++) {
+
+            int count = 0;
+            for(int i = 0; i < adjacencyMatrix.length; i++) {
+                if(adjacencyMatrix[i][id] != 0) tmp[count++] = int2node(i);
+            }
+            parents[id] = Arrays.copyOf(tmp, count);
+
+            count = 0;
+            for(int i = 0; i < adjacencyMatrix[id].length; i++) {
+                if(adjacencyMatrix[id][i] != 0) tmp[count++] = int2node(i);
             }
+            children[id] = Arrays.copyOf(tmp, count);
         }
-        String[] children = new String[count];
-        for(int k = 0; k < count; k++) children[k] = tmp[k];
+    }
+
+    // the returned arrays are shared, callers must not modify them
+    public String[] parents(String var) {
+
+        return parents[node2int(var)];
+    }
+
+    public String[] children(String var) {
 
-        return children;
+        return children[node2int(var)];
     }
 
     public String key(final String var) { return key(var, null, new String[]{}); }
@@ -244,17 +266,19 @@ public class BayesNet {
             sb.append(" | ");
         }
 
-        Arrays.sort(evidence);
+        // sort a copy, evidence may be a shared topology array
+        String[] sorted = evidence.clone();
+        Arrays.sort(sorted);
 
         if(values == null) values = this.values;
 
-        for(int i = 0; i < evidence.length; i++) {
+        for(int i = 0; i < sorted.length; i++) {
 
             if(i != 0) sb.append(", ");
 
-            sb.append(evidence[i]);
+            sb.append(sorted[i]);
             sb.append("=");
-            sb.append(values.get(evidence[i]) == null ? false : values.get(evidence[i]));
+            sb.append(values.get(sorted[i]) == null ? false : values.get(sorted[i]));
         }
 
         sb.append(")");
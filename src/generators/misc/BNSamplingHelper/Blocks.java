@@ -0,0 +1,242 @@
+package generators.misc.BNSamplingHelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Blocked Gibbs updates: small groups of non-evidence variables are sampled jointly from their
+ * exact joint conditional, enumerated over the 2^k states of the block. All other variables
+ * remain single-site updates. Immutable, so one instance can be shared by several chains.
+ */
+public class Blocks {
+
+    public static final int MAX_BLOCK_SIZE = 12;
+
+    // CPT coupling above which detect() puts parent and child into one block
+    public static final double DEFAULT_THRESHOLD = 0.8;
+
+    // sites in sweep order, every site is a list of sample indices (length 1: single-site update)
+    private int[][] sites;
+
+    // for every block site the variables whose CPT depends on it: the members and their children
+    private int[][] factors;
+
+    private int maxBlockSize;
+
+
+    private Blocks(CompiledNetwork net, List<int[]> blocks) {
+
+        int[] sampleVars = net.getSampleVars();
+        int[] site = new int[sampleVars.length];
+        Arrays.fill(site, -1);
+
+        for(int b = 0; b < blocks.size(); b++) {
+            int[] block = blocks.get(b);
+            if(block.length > MAX_BLOCK_SIZE)
+                throw new IllegalArgumentException("Blocks must not have more than " + MAX_BLOCK_SIZE + " variables.");
+            for(int i: block) {
+                if(site[i] >= 0)
+                    throw new IllegalArgumentException("Variable " + net.name(sampleVars[i]) + " is in more than one block.");
+                site[i] = b;
+            }
+        }
+
+        // a block is visited at the position of its first member
+        List<int[]> sites = new ArrayList<>();
+        List<int[]> factors = new ArrayList<>();
+        boolean[] visited = new boolean[blocks.size()];
+        for(int i = 0; i < sampleVars.length; i++) {
+
+            if(site[i] < 0 || blocks.get(site[i]).length == 1) {
+                sites.add(new int[]{i});
+                factors.add(null);
+                continue;
+            }
+            if(visited[site[i]]) continue;
+            visited[site[i]] = true;
+
+            int[] block = blocks.get(site[i]);
+            sites.add(block);
+            factors.add(factors(net, block));
+            maxBlockSize = Math.max(maxBlockSize, block.length);
+        }
+
+        this.sites = sites.toArray(new int[0][]);
+        this.factors = factors.toArray(new int[0][]);
+    }
+
+    private static int[] factors(CompiledNetwork net, int[] block) {
+
+        int[] sampleVars = net.getSampleVars();
+        List<Integer> factors = new ArrayList<>();
+        for(int i: block) {
+            int var = sampleVars[i];
+            if(!factors.contains(var)) factors.add(var);
+            for(int child: net.children(var)) {
+                if(!factors.contains(child)) factors.add(child);
+            }
+        }
+
+        return factors.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // user-specified blocks, given by variable names
+    public static Blocks of(CompiledNetwork net, String[]... blocks) {
+
+        List<int[]> list = new ArrayList<>();
+        for(String[] block: blocks) {
+            int[] indices = new int[block.length];
+            for(int j = 0; j < block.length; j++) {
+                int var = net.id(block[j]);
+                if(var < 0 || net.sampleIndex(var) < 0)
+                    throw new IllegalArgumentException(block[j] + " is not a non-evidence variable.");
+                indices[j] = net.sampleIndex(var);
+            }
+            list.add(indices);
+        }
+
+        return new Blocks(net, list);
+    }
+
+    public static Blocks detect(CompiledNetwork net) {
+
+        return detect(net, DEFAULT_THRESHOLD, 4);
+    }
+
+    /*
+     * Merges parent and child (both non-evidence) into one block if the child's CPT changes by at least
+     * threshold when only the parent flips. The strongest couplings are merged first, blocks do not grow
+     * beyond maxBlockSize.
+     */
+    public static Blocks detect(CompiledNetwork net, double threshold, int maxBlockSize) {
+
+        int[] sampleVars = net.getSampleVars();
+        maxBlockSize = Math.min(maxBlockSize, MAX_BLOCK_SIZE);
+
+        // edges {parent, child} as sample indices, strengths[e] is the coupling of edges.get(e)
+        List<int[]> edges = new ArrayList<>();
+        double[] strengths = new double[16];
+        for(int c = 0; c < sampleVars.length; c++) {
+            int child = sampleVars[c];
+            int[] parents = net.parents(child);
+            double[] cpt = net.cpt(child);
+
+            for(int j = 0; j < parents.length; j++) {
+                int p = net.sampleIndex(parents[j]);
+                if(p < 0) continue;
+
+                double strength = 0;
+                for(int index = 0; index < cpt.length; index++) {
+                    if((index & (1 << j)) == 0) continue;
+                    strength = Math.max(strength, Math.abs(cpt[index] - cpt[index & ~(1 << j)]));
+                }
+                if(strength < threshold) continue;
+
+                if(edges.size() == strengths.length) strengths = Arrays.copyOf(strengths, 2 * strengths.length);
+                strengths[edges.size()] = strength;
+                edges.add(new int[]{p, c});
+            }
+        }
+
+        // strongest first, equal strengths keep their order (the sort is stable)
+        Integer[] order = new Integer[edges.size()];
+        for(int e = 0; e < order.length; e++) order[e] = e;
+        double[] scores = strengths;
+        Arrays.sort(order, (a, b) -> Double.compare(scores[b], scores[a]));
+
+        // union find over the sample indices
+        int[] root = new int[sampleVars.length];
+        int[] size = new int[sampleVars.length];
+        for(int i = 0; i < root.length; i++) { root[i] = i; size[i] = 1; }
+
+        for(int e: order) {
+            int[] edge = edges.get(e);
+            int a = find(root, edge[0]);
+            int b = find(root, edge[1]);
+            if(a == b || size[a] + size[b] > maxBlockSize) continue;
+            root[b] = a;
+            size[a] += size[b];
+        }
+
+        List<int[]> blocks = new ArrayList<>();
+        int[][] members = new int[sampleVars.length][];
+        int[] count = new int[sampleVars.length];
+        for(int i = 0; i < sampleVars.length; i++) {
+            int r = find(root, i);
+            if(size[r] < 2) continue;
+            if(members[r] == null) {
+                members[r] = new int[size[r]];
+                blocks.add(members[r]);
+            }
+            members[r][count[r]++] = i;
+        }
+
+        return new Blocks(net, blocks);
+    }
+
+    private static int find(int[] root, int i) {
+
+        while(root[i] != i) {
+            root[i] = root[root[i]];
+            i = root[i];
+        }
+
+        return i;
+    }
+
+    public int[][] sites() {
+
+        return sites;
+    }
+
+    public int getMaxBlockSize() {
+
+        return maxBlockSize;
+    }
+
+    // samples the block site jointly with the uniform random number u, weights needs 2^k entries
+    public void sample(CompiledNetwork net, ChainState state, int site, double u, double[] weights) {
+
+        int[] sampleVars = net.getSampleVars();
+        int[] block = sites[site];
+        int[] factors = this.factors[site];
+        int states = 1 << block.length;
+
+        // log joint weight of every state of the block, from the log tables like the single-site updates
+        double max = Double.NEGATIVE_INFINITY;
+        for(int a = 0; a < states; a++) {
+
+            for(int j = 0; j < block.length; j++) {
+                state.set(sampleVars[block[j]], (a & (1 << j)) != 0);
+            }
+
+            double logWeight = 0;
+            for(int f: factors) {
+                logWeight += net.logCpt(f, 2 * net.parentIndex(state, f) + state.bit(f));
+            }
+
+            weights[a] = logWeight;
+            max = Math.max(max, logWeight);
+        }
+
+        // relative to the most likely state, so the products of many small CPT entries do not underflow,
+        // the most likely state has weight 1. if no state is possible at all, all states are equally likely
+        // (like a single-site update with an undefined conditional)
+        boolean impossible = max == Double.NEGATIVE_INFINITY;
+        double total = 0;
+        for(int a = 0; a < states; a++) {
+            total += impossible ? 1 : Math.exp(weights[a] - max);
+            weights[a] = total;
+        }
+
+        // inverse cdf, the bound only guards against u * total rounding up to total
+        double target = u * total;
+        int a = 0;
+        while(a < states - 1 && weights[a] <= target) a++;
+
+        for(int j = 0; j < block.length; j++) {
+            state.set(sampleVars[block[j]], (a & (1 << j)) != 0);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package generators.misc.BNSamplingHelper;
+
+public class ChainState {
+
+    // value of variable i is bit (i & 63) of bits[i >>> 6]
+    private long[] bits;
+
+    // evidence bits are pinned, set() does not change them
+    private long[] evidence;
+
+
+    public ChainState(int size) {
+
+        this.bits = new long[(size + 63) >>> 6];
+        this.evidence = new long[bits.length];
+    }
+
+    private ChainState(long[] bits, long[] evidence) {
+
+        this.bits = bits;
+        this.evidence = evidence;
+    }
+
+    public boolean get(int var) {
+
+        return (bits[var >>> 6] & (1L << var)) != 0;
+    }
+
+    // 0 or 1, for building indices without branches
+    public int bit(int var) {
+
+        return (int) (bits[var >>> 6] >>> var) & 1;
+    }
+
+    public void set(int var, boolean value) {
+
+        long mask = (1L << var) & ~evidence[var >>> 6];
+        bits[var >>> 6] = value ? bits[var >>> 6] | mask : bits[var >>> 6] & ~mask;
+    }
+
+    public void pin(int var, boolean value) {
+
+        evidence[var >>> 6] &= ~(1L << var);
+        set(var, value);
+        evidence[var >>> 6] |= 1L << var;
+    }
+
+    public boolean isEvidence(int var) {
+
+        return (evidence[var >>> 6] & (1L << var)) != 0;
+    }
+
+    // index into a table over the given variables, bit j is the value of vars[j]
+    public int index(int[] vars) {
+
+        return index(vars, 0, vars.length);
+    }
+
+    // same over vars[from .. to), bit j is the value of vars[from + j]
+    public int index(int[] vars, int from, int to) {
+
+        int index = 0;
+        for(int j = from; j < to; j++) {
+            index |= bit(vars[j]) << (j - from);
+        }
+
+        return index;
+    }
+
+    // the evidence mask is immutable after init and shared between copies
+    public ChainState copy() {
+
+        return new ChainState(bits.clone(), evidence);
+    }
+
+    public void copyFrom(ChainState other) {
+
+        System.arraycopy(other.bits, 0, bits, 0, bits.length);
+    }
+
+    public long[] words() {
+
+        return bits;
+    }
+}
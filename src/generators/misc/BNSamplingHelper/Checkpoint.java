@@ -0,0 +1,132 @@
+package generators.misc.BNSamplingHelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/*
+ * Snapshot of a GibbsEngine at a sweep boundary: chain state, iteration, burn-in and thinning,
+ * generator state, sample counts and diagnostics. Restoring it continues the exact same chain.
+ *
+ * Binary format (big endian, DataOutput): magic, version, number of variables n, number of
+ * non-evidence variables m, iteration, burn-in, thinning, 4 generator longs, ceil(n / 64) state
+ * words, m pairs (true count, total), then a flag and the diagnostics if they are enabled.
+ */
+public class Checkpoint {
+
+    private static final int MAGIC = 0x424E434B;
+    private static final int VERSION = 1;
+
+    int size;
+    int iteration;
+    int burnIn;
+    int thinning;
+    long[] state;
+    long[] random;
+    SampleCounts counts;
+    ConvergenceMonitor monitor;
+
+    // chain of the engine that took the checkpoint, for the flight recorder events only, not written to the file
+    int chain = 0;
+
+
+    Checkpoint(int size, int iteration, int burnIn, int thinning, long[] state, long[] random,
+               SampleCounts counts, ConvergenceMonitor monitor) {
+
+        this.size = size;
+        this.iteration = iteration;
+        this.burnIn = burnIn;
+        this.thinning = thinning;
+        this.state = state;
+        this.random = random;
+        this.counts = counts;
+        this.monitor = monitor;
+    }
+
+    // written to a temporary file first, so an interrupted write never replaces the last checkpoint
+    public void write(Path file) throws IOException {
+
+        SamplerEvents.CheckpointWrite event = SamplerEvents.isCheckpointWriteEnabled() ? new SamplerEvents.CheckpointWrite() : null;
+        if(event != null) event.begin();
+
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            out.writeInt(counts.size());
+            out.writeInt(iteration);
+            out.writeInt(burnIn);
+            out.writeInt(thinning);
+            for(long word: random) out.writeLong(word);
+            for(long word: state) out.writeLong(word);
+            for(int i = 0; i < counts.size(); i++) {
+                out.writeLong(counts.getCount(i, true));
+                out.writeLong(counts.getTotal(i));
+            }
+
+            out.writeBoolean(monitor != null);
+            if(monitor != null) monitor.write(out);
+        }
+
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        if(event != null && event.shouldCommit()) {
+            event.networkSize = size;
+            event.chain = chain;
+            event.iteration = iteration;
+            event.path = file.toString();
+            event.bytes = Files.size(file);
+            event.commit();
+        }
+    }
+
+    public static Checkpoint read(Path file, CompiledNetwork net) throws IOException {
+
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+
+            if(in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException(file + " is not a checkpoint.");
+
+            int size = in.readInt();
+            int m = in.readInt();
+            if(size != net.size() || m != net.getSampleVars().length)
+                throw new IOException(file + " does not belong to this network.");
+
+            int iteration = in.readInt();
+            int burnIn = in.readInt();
+            int thinning = in.readInt();
+            if(iteration < 0 || burnIn < 0 || thinning < 1)
+                throw new IOException(file + " has an invalid iteration, burn-in or thinning.");
+
+            long[] random = new long[4];
+            for(int j = 0; j < random.length; j++) random[j] = in.readLong();
+
+            long[] state = new long[(size + 63) >>> 6];
+            for(int w = 0; w < state.length; w++) state[w] = in.readLong();
+
+            String[] names = new String[m];
+            for(int i = 0; i < m; i++) names[i] = net.name(net.getSampleVars()[i]);
+            SampleCounts counts = new SampleCounts(names);
+            for(int i = 0; i < m; i++) {
+                long trues = in.readLong();
+                counts.add(i, trues, in.readLong());
+            }
+
+            ConvergenceMonitor monitor = in.readBoolean() ? ConvergenceMonitor.read(in, net) : null;
+
+            return new Checkpoint(size, iteration, burnIn, thinning, state, random, counts, monitor);
+        }
+    }
+
+    public int getIteration() {
+
+        return iteration;
+    }
+}
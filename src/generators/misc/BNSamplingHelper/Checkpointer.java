@@ -0,0 +1,96 @@
+package generators.misc.BNSamplingHelper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/*
+ * Runs an engine and writes a checkpoint every interval sweeps. The snapshot is copied at the sweep
+ * boundary, writing it happens on a background thread while sampling continues. Sampling only waits
+ * if the previous checkpoint is still being written when the next one is due.
+ */
+public class Checkpointer implements Closeable {
+
+    private GibbsEngine engine;
+    private Path file;
+    private int interval;
+
+    private ExecutorService writer;
+    private Future<?> pending;
+
+
+    public Checkpointer(GibbsEngine engine, Path file, int interval) {
+
+        if(interval <= 0)
+            throw new IllegalArgumentException("The checkpoint interval must be greater than 0.");
+
+        this.engine = engine;
+        this.file = file;
+        this.interval = interval;
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "checkpoint-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // continues the chain saved in file, the engine must be set up like the original one
+    public static Checkpoint resume(Path file, GibbsEngine engine, CompiledNetwork net) throws IOException {
+
+        Checkpoint checkpoint = Checkpoint.read(file, net);
+        engine.restore(checkpoint);
+
+        return checkpoint;
+    }
+
+    public void run(int sweeps) {
+
+        for(int i = 0; i < sweeps; i++) {
+            engine.sweep();
+            if(engine.getIteration() % interval == 0) checkpoint();
+        }
+    }
+
+    public void checkpoint() {
+
+        Checkpoint checkpoint = engine.checkpoint();
+        await();
+        pending = writer.submit(() -> {
+            checkpoint.write(file);
+            return null;
+        });
+    }
+
+    // waits for the pending write, its IOException is rethrown unchecked
+    private void await() {
+
+        if(pending == null) return;
+
+        try {
+            pending.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing a checkpoint.", e);
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof IOException) throw new UncheckedIOException((IOException) e.getCause());
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pending = null;
+        }
+    }
+
+    @Override
+    public void close() {
+
+        try {
+            await();
+        } finally {
+            writer.shutdown();
+        }
+    }
+}
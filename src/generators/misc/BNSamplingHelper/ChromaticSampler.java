@@ -0,0 +1,211 @@
+package generators.misc.BNSamplingHelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/*
+ * Parallel single chain: the non-evidence variables are coloured on the moralized graph
+ * (neighbours = markov blanket), so variables of one colour are conditionally independent
+ * and can be updated at the same time. Colour classes are updated one after another.
+ */
+public class ChromaticSampler {
+
+    // chunks smaller than this are not worth a task
+    public static final int DEFAULT_CHUNK_SIZE = 512;
+
+    private CompiledNetwork net;
+    private GibbsEngine engine;
+    private ForkJoinPool pool;
+    private long seed;
+
+    // classes[c] = chunks of colour c, every chunk is a list of sample indices
+    // a chunk owns whole words of the chain state, so tasks never write to the same word
+    private int[][][] classes;
+
+
+    public ChromaticSampler(CompiledNetwork net, long seed) {
+
+        this(net, seed, ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public ChromaticSampler(CompiledNetwork net, long seed, ForkJoinPool pool, int chunkSize) {
+
+        this.net = net;
+        this.pool = pool;
+        this.seed = seed;
+
+        // the engine holds state, counts and diagnostics, its own generator is not used
+        this.engine = new GibbsEngine(net, new Xoshiro256(seed));
+
+        int[] colors = color(net);
+        int numberOfColors = 0;
+        for(int color: colors) numberOfColors = Math.max(numberOfColors, color + 1);
+
+        classes = new int[numberOfColors][][];
+        int[] sampleVars = net.getSampleVars();
+        for(int c = 0; c < numberOfColors; c++) {
+
+            // sample indices of colour c, ordered by variable id
+            int count = 0;
+            int[] members = new int[sampleVars.length];
+            for(int i = 0; i < sampleVars.length; i++) {
+                if(colors[i] == c) members[count++] = i;
+            }
+            members = Arrays.copyOf(members, count);
+            sortByVar(members, sampleVars);
+
+            List<int[]> chunks = new ArrayList<>();
+            int start = 0;
+            for(int k = 1; k <= count; k++) {
+                boolean end = k == count
+                        || (k - start >= chunkSize && sampleVars[members[k]] >>> 6 != sampleVars[members[k - 1]] >>> 6);
+                if(end) {
+                    chunks.add(Arrays.copyOfRange(members, start, k));
+                    start = k;
+                }
+            }
+            classes[c] = chunks.toArray(new int[0][]);
+        }
+    }
+
+    // greedy colouring of the non-evidence variables, colors[i] is the colour of the i-th sample variable
+    public static int[] color(CompiledNetwork net) {
+
+        int[] sampleVars = net.getSampleVars();
+        int[] colors = new int[sampleVars.length];
+        Arrays.fill(colors, -1);
+
+        int[] used = new int[sampleVars.length + 1];
+        Arrays.fill(used, -1);
+
+        for(int i = 0; i < sampleVars.length; i++) {
+            for(int neighbour: net.blanket(sampleVars[i])) {
+                int j = net.sampleIndex(neighbour);
+                if(j >= 0 && colors[j] >= 0) used[colors[j]] = i;
+            }
+
+            int color = 0;
+            while(used[color] == i) color++;
+            colors[i] = color;
+        }
+
+        return colors;
+    }
+
+    private static void sortByVar(int[] members, int[] sampleVars) {
+
+        long[] keys = new long[members.length];
+        for(int k = 0; k < members.length; k++) {
+            keys[k] = ((long) sampleVars[members[k]] << 32) | members[k];
+        }
+        Arrays.sort(keys);
+        for(int k = 0; k < members.length; k++) {
+            members[k] = (int) keys[k];
+        }
+    }
+
+    public void run(int sweeps) {
+
+        for(int i = 0; i < sweeps; i++) {
+            sweep();
+        }
+    }
+
+    public void sweep() {
+
+        if(!SamplerEvents.isSweepEnabled()) {
+            step();
+            return;
+        }
+
+        SamplerEvents.Sweep event = new SamplerEvents.Sweep();
+        event.begin();
+
+        step();
+
+        event.end();
+        if(event.shouldCommit()) {
+            event.networkSize = net.size();
+            event.chain = engine.getChainId();
+            event.chains = 1;
+            event.iteration = engine.getIteration();
+            event.commit();
+        }
+    }
+
+    private void step() {
+
+        long sweep = engine.beginSweep();
+        boolean counted = engine.isCounted();
+        boolean phases = SamplerEvents.isParallelPhaseEnabled();
+
+        for(int c = 0; c < classes.length; c++) {
+
+            SamplerEvents.ParallelPhase phase = phases ? new SamplerEvents.ParallelPhase() : null;
+            if(phase != null) phase.begin();
+
+            int[][] chunks = classes[c];
+            if(chunks.length == 1) {
+                update(chunks[0], sweep, counted);
+            } else {
+                ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[chunks.length];
+                for(int k = 0; k < chunks.length; k++) {
+                    int[] chunk = chunks[k];
+                    tasks[k] = pool.submit(() -> update(chunk, sweep, counted));
+                }
+
+                // barrier: the next colour reads the values written by this one
+                for(ForkJoinTask<?> task: tasks) {
+                    task.join();
+                }
+            }
+
+            if(phase != null && phase.shouldCommit()) {
+                phase.networkSize = net.size();
+                phase.chain = engine.getChainId();
+                phase.iteration = sweep;
+                phase.color = c;
+                phase.tasks = chunks.length;
+                phase.commit();
+            }
+        }
+
+        engine.endSweep();
+    }
+
+    private void update(int[] chunk, long sweep, boolean counted) {
+
+        for(int i: chunk) {
+            engine.update(i, uniform(seed, sweep, i), counted);
+        }
+    }
+
+    // counter based random number, the same for (seed, sweep, stream) no matter which thread draws it
+    static double uniform(long seed, long sweep, long stream) {
+
+        long z = seed + sweep * 0x9E3779B97F4A7C15L + (stream + 1) * 0xD1B54A32D192ED03L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+
+        return (z >>> 11) * 0x1.0p-53;
+    }
+
+    public int getNumberOfColors() {
+
+        return classes.length;
+    }
+
+    public GibbsEngine getEngine() {
+
+        return engine;
+    }
+
+    public void setConditionals(FullConditionals conditionals) {
+
+        engine.setConditionals(conditionals);
+    }
+}
@@ -0,0 +1,469 @@
+package generators.misc.BNSamplingHelper;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class CompiledNetwork {
+
+    // variables are addressed by their index in vars
+    private String[] vars;
+    private HashMap<String, Integer> ids;
+
+    /*
+     * Topology in compressed sparse form, memory grows with the number of edges: the parents of var are
+     * parentIds[parentStart[var] .. parentStart[var + 1]), children and markov blanket likewise.
+     * Bit j of a cpt index is the value of the j-th parent.
+     */
+    private int[] parentStart;
+    private int[] parentIds;
+    private int[] childStart;
+    private int[] childIds;
+    private int[] blanketStart;
+    private int[] blanketIds;
+
+    // childSlots[e] is the position of var among the parents of childIds[e]
+    private int[] childSlots;
+
+    // P(var=true | parents), indexed by the parent assignment bitmask
+    private double[][] cpt;
+
+    // log P(var=value | parents) at 2 * index + value, value 1 = true
+    private double[][] logCpt;
+
+    // optional off-heap storage of both tables, null: cpt and logCpt are on the heap
+    private MappedTables mapped;
+
+    // non-evidence variables, position of every variable in sampleVars (-1 for evidence)
+    // and the initial assignment with pinned evidence
+    private int[] sampleVars;
+    private int[] sampleIndex;
+    private ChainState initialState;
+
+
+    public static CompiledNetwork compile(BayesNet bn) {
+
+        String[] vars = bn.getVars();
+        HashMap<String, Integer> ids = new HashMap<>();
+        for(int i = 0; i < vars.length; i++) {
+            ids.put(vars[i], i);
+        }
+
+        boolean[] values = new boolean[vars.length];
+        for(int var = 0; var < vars.length; var++) {
+            values[var] = bn.values.get(vars[var]);
+        }
+
+        String[] sampleVarNames = bn.getSampleVars();
+        int[] sampleVars = new int[sampleVarNames.length];
+        for(int i = 0; i < sampleVarNames.length; i++) {
+            sampleVars[i] = ids.get(sampleVarNames[i]);
+        }
+
+        int[][] edges = edges(bn.getAdjacencyMatrix());
+        return load(vars, edges[0], edges[1], bn.getTables(), sampleVars, values);
+    }
+
+    // edge list {from, to} of an adjacency matrix, ordered by child and then by parent like BayesNet.parents
+    public static int[][] edges(int[][] adjacencyMatrix) {
+
+        int n = adjacencyMatrix.length;
+        int count = 0;
+        for(int[] row: adjacencyMatrix) {
+            for(int entry: row) if(entry != 0) count++;
+        }
+
+        int[] from = new int[count];
+        int[] to = new int[count];
+        int e = 0;
+        for(int child = 0; child < n; child++) {
+            for(int parent = 0; parent < n; parent++) {
+                if(adjacencyMatrix[parent][child] != 0) {
+                    from[e] = parent;
+                    to[e++] = child;
+                }
+            }
+        }
+
+        return new int[][]{from, to};
+    }
+
+    // parents[var] lists the parents of var, in cpt order
+    public static CompiledNetwork load(String[] vars, int[][] parents, double[][] tables, int[] sampleVars, boolean[] values) {
+
+        if(parents.length != vars.length)
+            throw new IllegalArgumentException("Variables, parents, tables and values must have the same length.");
+
+        int count = 0;
+        for(int[] p: parents) count += p.length;
+
+        int[] from = new int[count];
+        int[] to = new int[count];
+        int e = 0;
+        for(int var = 0; var < parents.length; var++) {
+            for(int parent: parents[var]) {
+                from[e] = parent;
+                to[e++] = var;
+            }
+        }
+
+        return load(vars, from, to, tables, sampleVars, values);
+    }
+
+    /*
+     * tables[var] contains P(var=true | parents) for every assignment of parents[var], row-major
+     * like a truth table: the first parent changes slowest and true comes before false.
+     * values contains the initial value of every variable, evidence variables keep theirs.
+     * Edge e goes from parent from[e] to child to[e], the parents of a variable are in the order of its edges.
+     */
+    public static CompiledNetwork load(String[] vars, int[] from, int[] to, double[][] tables, int[] sampleVars, boolean[] values) {
+
+        int n = vars.length;
+        if(tables.length != n)
+            throw new IllegalArgumentException("Variables, parents, tables and values must have the same length.");
+
+        CompiledNetwork net = create(vars, from, to, sampleVars, values);
+
+        net.cpt = new double[n][];
+        net.logCpt = new double[n][];
+
+        // permutation from truth table row to cpt index, shared by all variables with k parents
+        int[][] rowToIndex = new int[Integer.SIZE][];
+
+        for(int var = 0; var < n; var++) {
+
+            int k = net.parentStart[var + 1] - net.parentStart[var];
+            if(k >= Integer.SIZE - 1)
+                throw new IllegalArgumentException("Variable " + vars[var] + " has too many parents.");
+            if(tables[var].length != 1 << k)
+                throw new IllegalArgumentException("Table of " + vars[var] + " must have " + (1 << k) + " entries.");
+
+            if(rowToIndex[k] == null) rowToIndex[k] = rowToIndex(k);
+            int[] permutation = rowToIndex[k];
+
+            double[] table = tables[var];
+            double[] cpt = new double[table.length];
+            for(int row = 0; row < table.length; row++) {
+                if(!(table[row] >= 0 && table[row] <= 1))
+                    throw new IllegalArgumentException("Table of " + vars[var] + " has invalid entries (< 0 or > 1).");
+                cpt[permutation[row]] = table[row];
+            }
+
+            double[] logCpt = new double[2 * cpt.length];
+            for(int index = 0; index < cpt.length; index++) {
+                logCpt[2 * index] = Math.log(1 - cpt[index]);
+                logCpt[2 * index + 1] = Math.log(cpt[index]);
+            }
+
+            net.cpt[var] = cpt;
+            net.logCpt[var] = logCpt;
+        }
+
+        return net;
+    }
+
+    // same with tables written by MappedTables.write, their entries are not checked again
+    public static CompiledNetwork load(String[] vars, int[] from, int[] to, MappedTables tables, int[] sampleVars, boolean[] values) {
+
+        if(tables.size() != vars.length)
+            throw new IllegalArgumentException("Variables, parents, tables and values must have the same length.");
+
+        CompiledNetwork net = create(vars, from, to, sampleVars, values);
+        for(int var = 0; var < vars.length; var++) {
+            if(tables.entries(var) != 1L << (net.parentEnd(var) - net.parentStart(var)))
+                throw new IllegalArgumentException("Table of " + vars[var] + " does not match its parents.");
+        }
+        net.mapped = tables;
+
+        return net;
+    }
+
+    // everything but the tables
+    private static CompiledNetwork create(String[] vars, int[] from, int[] to, int[] sampleVars, boolean[] values) {
+
+        int n = vars.length;
+        if(values.length != n)
+            throw new IllegalArgumentException("Variables, parents, tables and values must have the same length.");
+        if(from.length != to.length)
+            throw new IllegalArgumentException("Every edge needs a start and an end.");
+
+        CompiledNetwork net = new CompiledNetwork();
+
+        net.vars = vars;
+        net.ids = new HashMap<>();
+        for(int i = 0; i < n; i++) {
+            net.ids.put(vars[i], i);
+        }
+
+        net.initTopology(from, to);
+
+        net.sampleVars = sampleVars.clone();
+        net.sampleIndex = new int[n];
+        Arrays.fill(net.sampleIndex, -1);
+        for(int i = 0; i < sampleVars.length; i++) net.sampleIndex[sampleVars[i]] = i;
+
+        net.initialState = new ChainState(n);
+        for(int var = 0; var < n; var++) {
+            if(net.sampleIndex[var] >= 0) net.initialState.set(var, values[var]);
+            else net.initialState.pin(var, values[var]);
+        }
+
+        return net;
+    }
+
+    // row r has parent j = true iff bit (k-1-j) of r is 0, the cpt index has bit j set iff parent j = true
+    static int[] rowToIndex(int k) {
+
+        int size = 1 << k;
+        int[] reversed = new int[size];
+        for(int row = 1; row < size; row++) {
+            reversed[row] = (reversed[row >> 1] >> 1) | ((row & 1) << (k - 1));
+        }
+        for(int row = 0; row < size; row++) {
+            reversed[row] ^= size - 1;
+        }
+
+        return reversed;
+    }
+
+    // builds the sparse topology in O(V + E), plus the size of the markov blankets
+    private void initTopology(int[] from, int[] to) {
+
+        int n = vars.length;
+        int m = from.length;
+
+        // parents: counting sort of the edges by child, stable so the edge order is the parent order
+        parentStart = new int[n + 1];
+        for(int e = 0; e < m; e++) {
+            if(from[e] < 0 || from[e] >= n || to[e] < 0 || to[e] >= n)
+                throw new IllegalArgumentException("Edge " + e + " has an unknown variable.");
+            parentStart[to[e] + 1]++;
+        }
+        for(int var = 0; var < n; var++) parentStart[var + 1] += parentStart[var];
+
+        parentIds = new int[m];
+        int[] next = Arrays.copyOf(parentStart, n);
+        for(int e = 0; e < m; e++) {
+            parentIds[next[to[e]]++] = from[e];
+        }
+
+        // children, and the slot of the parent in every child's parent list
+        childStart = new int[n + 1];
+        for(int e = 0; e < m; e++) childStart[parentIds[e] + 1]++;
+        for(int var = 0; var < n; var++) childStart[var + 1] += childStart[var];
+
+        childIds = new int[m];
+        childSlots = new int[m];
+        next = Arrays.copyOf(childStart, n);
+        for(int var = 0; var < n; var++) {
+            for(int e = parentStart[var]; e < parentStart[var + 1]; e++) {
+                int parent = parentIds[e];
+                childSlots[next[parent]] = e - parentStart[var];
+                childIds[next[parent]++] = var;
+            }
+        }
+
+        // markov blanket: parents, children and the other parents of the children
+        blanketStart = new int[n + 1];
+        blanketIds = new int[Math.max(16, 2 * m)];
+        int[] mark = new int[n];
+        Arrays.fill(mark, -1);
+        int count = 0;
+        for(int var = 0; var < n; var++) {
+
+            mark[var] = var;
+            int begin = count;
+
+            for(int e = parentStart[var]; e < parentStart[var + 1]; e++) {
+                int parent = parentIds[e];
+                if(mark[parent] != var) { mark[parent] = var; count = append(count, parent); }
+            }
+            for(int c = childStart[var]; c < childStart[var + 1]; c++) {
+                int child = childIds[c];
+                if(mark[child] != var) { mark[child] = var; count = append(count, child); }
+                for(int e = parentStart[child]; e < parentStart[child + 1]; e++) {
+                    int coParent = parentIds[e];
+                    if(mark[coParent] != var) { mark[coParent] = var; count = append(count, coParent); }
+                }
+            }
+
+            Arrays.sort(blanketIds, begin, count);
+            blanketStart[var + 1] = count;
+        }
+        blanketIds = Arrays.copyOf(blanketIds, count);
+    }
+
+    private int append(int count, int var) {
+
+        if(count == blanketIds.length) blanketIds = Arrays.copyOf(blanketIds, 2 * count);
+        blanketIds[count] = var;
+
+        return count + 1;
+    }
+
+    public int size() {
+
+        return vars.length;
+    }
+
+    public int id(String var) {
+
+        Integer id = ids.get(var);
+        return id == null ? -1 : id;
+    }
+
+    public String name(int var) {
+
+        return vars[var];
+    }
+
+    // copies, for the hot path use the start/end offsets into the id arrays
+    public int[] parents(int var) {
+
+        return Arrays.copyOfRange(parentIds, parentStart[var], parentStart[var + 1]);
+    }
+
+    public int[] children(int var) {
+
+        return Arrays.copyOfRange(childIds, childStart[var], childStart[var + 1]);
+    }
+
+    public int[] blanket(int var) {
+
+        return Arrays.copyOfRange(blanketIds, blanketStart[var], blanketStart[var + 1]);
+    }
+
+    public int parentStart(int var) {
+
+        return parentStart[var];
+    }
+
+    public int parentEnd(int var) {
+
+        return parentStart[var + 1];
+    }
+
+    public int[] parentIds() {
+
+        return parentIds;
+    }
+
+    public int childStart(int var) {
+
+        return childStart[var];
+    }
+
+    public int childEnd(int var) {
+
+        return childStart[var + 1];
+    }
+
+    public int[] childIds() {
+
+        return childIds;
+    }
+
+    public int[] childSlots() {
+
+        return childSlots;
+    }
+
+    public int blanketStart(int var) {
+
+        return blanketStart[var];
+    }
+
+    public int blanketEnd(int var) {
+
+        return blanketStart[var + 1];
+    }
+
+    public int[] blanketIds() {
+
+        return blanketIds;
+    }
+
+    // cpt index of var for the current values of its parents
+    public int parentIndex(ChainState state, int var) {
+
+        return state.index(parentIds, parentStart[var], parentStart[var + 1]);
+    }
+
+    // index into a table over the markov blanket of var
+    public int blanketIndex(ChainState state, int var) {
+
+        return state.index(blanketIds, blanketStart[var], blanketStart[var + 1]);
+    }
+
+    // the whole table, shared on the heap and a copy for mapped tables
+    public double[] cpt(int var) {
+
+        if(mapped == null) return cpt[var];
+
+        double[] table = new double[mapped.entries(var)];
+        for(int index = 0; index < table.length; index++) {
+            table[index] = mapped.cpt(var, index);
+        }
+
+        return table;
+    }
+
+    // P(var=true | parents) at the given cpt index
+    public double cpt(int var, int index) {
+
+        return mapped == null ? cpt[var][index] : mapped.cpt(var, index);
+    }
+
+    public double logCpt(int var, int i) {
+
+        return mapped == null ? logCpt[var][i] : mapped.logCpt(var, i);
+    }
+
+    // interleaved log table of var as stored on the heap, null if the tables are mapped
+    double[] logTable(int var) {
+
+        return mapped == null ? logCpt[var] : null;
+    }
+
+    /*
+     * P(var=true | markov blanket). Both branches are sums of logs, so many children cannot underflow
+     * into denormals, and are normalized with a single exp of the log odds.
+     */
+    public double conditional(ChainState state, int var) {
+
+        int index = 2 * parentIndex(state, var);
+        double logTrue = logCpt(var, index + 1);
+        double logFalse = logCpt(var, index);
+
+        for(int c = childStart[var]; c < childStart[var + 1]; c++) {
+            int child = childIds[c];
+            int bit = 1 << childSlots[c];
+            int childIndex = parentIndex(state, child) & ~bit;
+            int value = state.bit(child);
+            logTrue += logCpt(child, 2 * (childIndex | bit) + value);
+            logFalse += logCpt(child, 2 * childIndex + value);
+        }
+
+        return logistic(logTrue - logFalse);
+    }
+
+    // 1 / (1 + e^-logOdds), 0.5 if both branches are impossible
+    static double logistic(double logOdds) {
+
+        return logOdds != logOdds ? 0.5 : 1 / (1 + Math.exp(-logOdds));
+    }
+
+    public int[] getSampleVars() {
+
+        return sampleVars;
+    }
+
+    public int sampleIndex(int var) {
+
+        return sampleIndex[var];
+    }
+
+    public ChainState newState() {
+
+        return initialState.copy();
+    }
+}
@@ -0,0 +1,278 @@
+package generators.misc.BNSamplingHelper;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/*
+ * Constant memory diagnostics of one chain, recorded after every counted sweep:
+ * running mean and variance of every non-evidence variable (as 0/1 indicator),
+ * batch means effective sample size and, together with other chains, Gelman-Rubin R-hat.
+ */
+public class ConvergenceMonitor {
+
+    // number of batches kept, when all are full neighbouring batches are merged
+    public static final int BATCHES = 64;
+
+    private int[] sampleVars;
+
+    // sample variables whose cpt has only 0/1 entries, they are a function of their parents
+    private boolean[] deterministic;
+
+    // for the flight recorder events
+    private int networkSize;
+    private int chain = 0;
+
+    private long sweeps = 0;
+    private long[] trueCounts;
+
+    // batch means: batchTrue[i][b] counts var i = true in batch b
+    private long batchSize = 1;
+    private int batches = 0;
+    private long inBatch = 0;
+    private long[] current;
+    private long[][] batchTrue;
+
+
+    public ConvergenceMonitor(CompiledNetwork net) {
+
+        this.sampleVars = net.getSampleVars();
+        this.networkSize = net.size();
+        this.trueCounts = new long[sampleVars.length];
+        this.current = new long[sampleVars.length];
+        this.batchTrue = new long[sampleVars.length][BATCHES];
+
+        this.deterministic = new boolean[sampleVars.length];
+        for(int i = 0; i < sampleVars.length; i++) {
+            int var = sampleVars[i];
+            deterministic[i] = true;
+            for(int index = 0; index < 1 << net.parents(var).length && deterministic[i]; index++) {
+                double p = net.cpt(var, index);
+                deterministic[i] = p == 0 || p == 1;
+            }
+        }
+    }
+
+    private ConvergenceMonitor(int[] sampleVars) {
+
+        this.sampleVars = sampleVars;
+    }
+
+    public ConvergenceMonitor copy() {
+
+        ConvergenceMonitor copy = new ConvergenceMonitor(sampleVars);
+        copy.deterministic = deterministic;
+        copy.networkSize = networkSize;
+        copy.chain = chain;
+        copy.sweeps = sweeps;
+        copy.trueCounts = trueCounts.clone();
+        copy.batchSize = batchSize;
+        copy.batches = batches;
+        copy.inBatch = inBatch;
+        copy.current = current.clone();
+        copy.batchTrue = new long[batchTrue.length][];
+        for(int i = 0; i < batchTrue.length; i++) {
+            copy.batchTrue[i] = batchTrue[i].clone();
+        }
+
+        return copy;
+    }
+
+    // checkpoint format, see Checkpoint
+    void write(DataOutput out) throws IOException {
+
+        out.writeLong(sweeps);
+        out.writeLong(batchSize);
+        out.writeInt(batches);
+        out.writeLong(inBatch);
+        for(int i = 0; i < sampleVars.length; i++) {
+            out.writeLong(trueCounts[i]);
+            out.writeLong(current[i]);
+            for(int b = 0; b < batches; b++) out.writeLong(batchTrue[i][b]);
+        }
+    }
+
+    static ConvergenceMonitor read(DataInput in, CompiledNetwork net) throws IOException {
+
+        ConvergenceMonitor monitor = new ConvergenceMonitor(net);
+        monitor.sweeps = in.readLong();
+        monitor.batchSize = in.readLong();
+        monitor.batches = in.readInt();
+        monitor.inBatch = in.readLong();
+        if(monitor.batches < 0 || monitor.batches >= BATCHES)
+            throw new IOException("Invalid diagnostics in checkpoint.");
+        for(int i = 0; i < monitor.sampleVars.length; i++) {
+            monitor.trueCounts[i] = in.readLong();
+            monitor.current[i] = in.readLong();
+            for(int b = 0; b < monitor.batches; b++) monitor.batchTrue[i][b] = in.readLong();
+        }
+
+        return monitor;
+    }
+
+    public void record(ChainState state) {
+
+        sweeps++;
+        inBatch++;
+        for(int i = 0; i < sampleVars.length; i++) {
+            current[i] += state.bit(sampleVars[i]);
+        }
+
+        if(inBatch < batchSize) return;
+
+        for(int i = 0; i < sampleVars.length; i++) {
+            trueCounts[i] += current[i];
+            batchTrue[i][batches] = current[i];
+            current[i] = 0;
+        }
+        inBatch = 0;
+        batches++;
+
+        if(batches == BATCHES) {
+            for(int i = 0; i < sampleVars.length; i++) {
+                for(int b = 0; b < BATCHES / 2; b++) {
+                    batchTrue[i][b] = batchTrue[i][2 * b] + batchTrue[i][2 * b + 1];
+                }
+            }
+            batches = BATCHES / 2;
+            batchSize *= 2;
+        }
+    }
+
+    public long getSweeps() {
+
+        return sweeps;
+    }
+
+    // statistics over the completed batches, the current partial batch is not included
+    private long completed() {
+
+        return batches * batchSize;
+    }
+
+    public double mean(int i) {
+
+        long n = completed();
+        return n == 0 ? 0 : trueCounts[i] / (double) n;
+    }
+
+    public double variance(int i) {
+
+        long n = completed();
+        if(n < 2) return 0;
+
+        double mean = mean(i);
+        return mean * (1 - mean) * n / (n - 1);
+    }
+
+    public double ess(int i) {
+
+        if(batches < 2) return 0;
+
+        /*
+         * A variable that never changed has no estimate yet, a stuck chain must not look converged.
+         * Only a deterministic variable (e.g. a function of evidence parents) that never changed has
+         * nothing left to estimate, it counts with every recorded sweep so it does not keep minEss at 0.
+         */
+        double variance = variance(i);
+        if(variance == 0) return deterministic[i] ? completed() : 0;
+
+        double mean = mean(i);
+        double batchVariance = 0;
+        for(int b = 0; b < batches; b++) {
+            double d = batchTrue[i][b] / (double) batchSize - mean;
+            batchVariance += d * d;
+        }
+        batchVariance /= batches - 1;
+
+        // asymptotic variance estimated from the batch means, 0 if the variable changed
+        // but every batch has the same mean, e.g. alternating values
+        double sigma = batchSize * batchVariance;
+        if(sigma == 0) return completed();
+
+        return Math.min(completed(), completed() * variance / sigma);
+    }
+
+    public double minEss() {
+
+        double min = Double.POSITIVE_INFINITY;
+        for(int i = 0; i < sampleVars.length; i++) {
+            min = Math.min(min, ess(i));
+        }
+
+        return min;
+    }
+
+    public int size() {
+
+        return sampleVars.length;
+    }
+
+    // number of all variables of the network, evidence included
+    public int getNetworkSize() {
+
+        return networkSize;
+    }
+
+    public int getChain() {
+
+        return chain;
+    }
+
+    void setChain(int chain) {
+
+        this.chain = chain;
+    }
+
+    // potential scale reduction of variable i, needs chains of equal length
+    public static double rhat(ConvergenceMonitor[] chains, int i) {
+
+        int m = chains.length;
+        long n = chains[0].completed();
+        if(m < 2 || n < 2) return Double.POSITIVE_INFINITY;
+
+        double meanOfMeans = 0;
+        double within = 0;
+        for(ConvergenceMonitor chain: chains) {
+            meanOfMeans += chain.mean(i);
+            within += chain.variance(i);
+        }
+        meanOfMeans /= m;
+        within /= m;
+
+        double between = 0;
+        for(ConvergenceMonitor chain: chains) {
+            double d = chain.mean(i) - meanOfMeans;
+            between += d * d;
+        }
+        between /= m - 1;
+
+        if(within == 0) return between == 0 ? 1 : Double.POSITIVE_INFINITY;
+
+        double pooled = (n - 1) / (double) n * within + between;
+        return Math.sqrt(pooled / within);
+    }
+
+    public static double maxRhat(ConvergenceMonitor[] chains) {
+
+        double max = 0;
+        for(int i = 0; i < chains[0].size(); i++) {
+            max = Math.max(max, rhat(chains, i));
+        }
+
+        return max;
+    }
+
+    // effective sample size of variable i summed over all chains, minimum over the variables
+    public static double minEss(ConvergenceMonitor[] chains) {
+
+        double min = Double.POSITIVE_INFINITY;
+        for(int i = 0; i < chains[0].size(); i++) {
+            double ess = 0;
+            for(ConvergenceMonitor chain: chains) ess += chain.ess(i);
+            min = Math.min(min, ess);
+        }
+
+        return min;
+    }
+}
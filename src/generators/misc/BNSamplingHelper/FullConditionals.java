@@ -0,0 +1,58 @@
+package generators.misc.BNSamplingHelper;
+
+public class FullConditionals {
+
+    // table entries of all variables together, 2^24 doubles are 128 MB
+    public static final long DEFAULT_BUDGET = 1L << 24;
+
+    // tables[var][index] = P(var=true | blanket), bit j of index is the value of blanket(var)[j]
+    // null for variables whose blanket did not fit into the budget
+    private double[][] tables;
+    private long size;
+
+
+    public static FullConditionals compile(CompiledNetwork net) {
+
+        return compile(net, DEFAULT_BUDGET);
+    }
+
+    public static FullConditionals compile(CompiledNetwork net, long budget) {
+
+        FullConditionals conditionals = new FullConditionals();
+        conditionals.tables = new double[net.size()][];
+
+        ChainState scratch = new ChainState(net.size());
+
+        for(int var: net.getSampleVars()) {
+
+            int[] blanket = net.blanket(var);
+            if(blanket.length >= Integer.SIZE - 1) continue;
+
+            int entries = 1 << blanket.length;
+            if(conditionals.size + entries > budget) continue;
+
+            double[] table = new double[entries];
+            for(int index = 0; index < entries; index++) {
+                for(int j = 0; j < blanket.length; j++) {
+                    scratch.set(blanket[j], (index & (1 << j)) != 0);
+                }
+                table[index] = net.conditional(scratch, var);
+            }
+
+            conditionals.tables[var] = table;
+            conditionals.size += entries;
+        }
+
+        return conditionals;
+    }
+
+    public double[] table(int var) {
+
+        return tables[var];
+    }
+
+    public long size() {
+
+        return size;
+    }
+}
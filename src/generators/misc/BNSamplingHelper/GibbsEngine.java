@@ -0,0 +1,507 @@
+package generators.misc.BNSamplingHelper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.random.RandomGenerator;
+
+public class GibbsEngine {
+
+    private CompiledNetwork net;
+    private int[] sampleVars;
+    private RandomGenerator random;
+
+    // uniform numbers of the current sweep, drawn in bulk
+    private double[] uniforms;
+
+    // current value of every variable, indexed by variable id
+    private ChainState state;
+
+    // optional precompiled full conditionals, null: computed on the fly
+    private FullConditionals conditionals;
+
+    // optional blocked updates, null: single-site updates only
+    private Blocks blocks;
+    private double[] weights;
+    private double[] siteUniforms;
+
+    // iteration number, increased when a new sweep begins
+    private int iteration = 0;
+
+    // position of this chain in a multi-chain run, for the flight recorder events
+    private int chainId = 0;
+
+    // the first burnIn sweeps and all but every thinning-th sweep afterwards are not counted
+    private int burnIn = 0;
+    private int thinning = 1;
+
+    // sample counts of the non-evidence variables, in the order of sampleVars
+    private SampleCounts counts;
+
+    // optional convergence diagnostics, null: disabled
+    private ConvergenceMonitor monitor;
+
+    // optional trace of the kept sweeps, null: disabled
+    private TraceWriter trace;
+
+    // optional metrics, null: disabled
+    private SamplerMetrics metrics;
+    private SamplerMetrics.Stripe stripe;
+
+    // optional in-memory snapshots (state, generator, counts) every snapshotInterval sweeps, for seek()
+    private int snapshotInterval = 0;
+    private TreeMap<Integer, Checkpoint> snapshots;
+
+
+    public GibbsEngine(BayesNet bn, RandomGenerator random) {
+
+        this(CompiledNetwork.compile(bn), random);
+    }
+
+    public GibbsEngine(CompiledNetwork net, RandomGenerator random) {
+
+        this.net = net;
+        this.sampleVars = net.getSampleVars();
+        this.random = random;
+        this.state = net.newState();
+        this.uniforms = new double[sampleVars.length];
+
+        String[] names = new String[sampleVars.length];
+        for(int i = 0; i < names.length; i++) {
+            names[i] = net.name(sampleVars[i]);
+        }
+        this.counts = new SampleCounts(names);
+    }
+
+    public void run(int sweeps) {
+
+        for(int i = 0; i < sweeps; i++) {
+            sweep();
+        }
+    }
+
+    // runs until the stop condition is reached or maxSweeps sweeps are done, returns the number of sweeps
+    public int run(int maxSweeps, StopCondition stop) {
+
+        if(monitor == null) enableDiagnostics();
+
+        int done = 0;
+        while(done < maxSweeps) {
+            int sweeps = Math.min(stop.getCheckInterval(), maxSweeps - done);
+            run(sweeps);
+            done += sweeps;
+
+            if(stop.isReached(monitor)) break;
+        }
+
+        return done;
+    }
+
+    public void sweep() {
+
+        if(!SamplerEvents.isSweepEnabled()) {
+            step();
+            return;
+        }
+
+        SamplerEvents.Sweep event = new SamplerEvents.Sweep();
+        event.begin();
+        step();
+        event.end();
+
+        if(event.shouldCommit()) {
+            event.networkSize = net.size();
+            event.chain = chainId;
+            event.chains = 1;
+            event.iteration = iteration;
+            event.commit();
+        }
+    }
+
+    private void step() {
+
+        beginSweep();
+
+        if(blocks != null) {
+            sweepBlocks(isCounted(), stripe != null && iteration % SamplerMetrics.TIMING_INTERVAL == 0);
+        } else if(stripe != null && iteration % SamplerMetrics.TIMING_INTERVAL == 0) {
+            timedSweep(isCounted());
+        } else if(!isCounted()) {
+            advance();
+        } else {
+            Xoshiro256.nextDoubles(random, uniforms);
+            for(int i = 0; i < sampleVars.length; i++) {
+                update(i, uniforms[i], true);
+            }
+        }
+
+        endSweep();
+    }
+
+    // takes the due snapshot and records a counted sweep in the diagnostics and the trace
+    public void endSweep() {
+
+        if(stripe != null) metrics.sweepDone(stripe, iteration);
+
+        if(snapshots != null && iteration % snapshotInterval == 0) snapshots.put(iteration, checkpoint(false));
+
+        if(!isCounted()) return;
+
+        if(monitor != null) monitor.record(state);
+        if(trace != null) {
+            try {
+                trace.append(state, iteration);
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // moves the chain forward without touching counters or diagnostics
+    private void advance() {
+
+        Xoshiro256.nextDoubles(random, uniforms);
+        for(int i = 0; i < sampleVars.length; i++) {
+            int var = sampleVars[i];
+            boolean value = uniforms[i] <= conditional(var);
+            if(stripe != null && value != state.get(var)) stripe.flips[i]++;
+            state.set(var, value);
+        }
+    }
+
+    // same as a single-site sweep, but every phase is timed for the metrics
+    private void timedSweep(boolean counted) {
+
+        long t0 = System.nanoTime();
+        Xoshiro256.nextDoubles(random, uniforms);
+        long t1 = System.nanoTime();
+        stripe.rngNanos += t1 - t0;
+
+        for(int i = 0; i < sampleVars.length; i++) {
+            int var = sampleVars[i];
+
+            long a = System.nanoTime();
+            double p = conditional(var);
+            long b = System.nanoTime();
+
+            boolean value = uniforms[i] <= p;
+            if(value != state.get(var)) stripe.flips[i]++;
+            state.set(var, value);
+            if(counted) counts.increment(i, value);
+            long c = System.nanoTime();
+
+            stripe.cptNanos += b - a;
+            stripe.countingNanos += c - b;
+        }
+        stripe.timedUpdates += sampleVars.length;
+    }
+
+    // blocked sweep, timed for the metrics like timedSweep if timed is set
+    private void sweepBlocks(boolean counted, boolean timed) {
+
+        int[][] sites = blocks.sites();
+        long t0 = timed ? System.nanoTime() : 0;
+        Xoshiro256.nextDoubles(random, siteUniforms);
+        if(timed) stripe.rngNanos += System.nanoTime() - t0;
+
+        for(int s = 0; s < sites.length; s++) {
+
+            int[] site = sites[s];
+            if(site.length == 1 && !timed) {
+                update(site[0], siteUniforms[s], counted);
+                continue;
+            }
+
+            // values before the update, bit j for member j, to count the flips
+            int before = 0;
+            if(stripe != null) {
+                for(int j = 0; j < site.length; j++) before |= state.bit(sampleVars[site[j]]) << j;
+            }
+
+            long a = timed ? System.nanoTime() : 0;
+            if(site.length == 1) state.set(sampleVars[site[0]], siteUniforms[s] <= conditional(sampleVars[site[0]]));
+            else blocks.sample(net, state, s, siteUniforms[s], weights);
+            long b = timed ? System.nanoTime() : 0;
+
+            if(stripe != null) {
+                for(int j = 0; j < site.length; j++) {
+                    if(state.bit(sampleVars[site[j]]) != ((before >>> j) & 1)) stripe.flips[site[j]]++;
+                }
+            }
+            if(counted) {
+                for(int i: site) counts.increment(i, state.get(sampleVars[i]));
+            }
+
+            if(timed) {
+                stripe.cptNanos += b - a;
+                stripe.countingNanos += System.nanoTime() - b;
+            }
+        }
+        if(timed) stripe.timedUpdates += sampleVars.length;
+    }
+
+    // whether the current sweep is kept, i.e. after burn-in and on the thinning interval
+    public boolean isCounted() {
+
+        return iteration > burnIn && (iteration - burnIn) % thinning == 0;
+    }
+
+    public void setBurnIn(int burnIn) {
+
+        if(burnIn < 0)
+            throw new IllegalArgumentException("BurnIn must not be negative.");
+
+        this.burnIn = burnIn;
+    }
+
+    public void setThinning(int thinning) {
+
+        if(thinning < 1)
+            throw new IllegalArgumentException("Thinning must be greater than 0.");
+
+        this.thinning = thinning;
+    }
+
+    // samples the i-th non-evidence variable and counts its new value
+    public boolean update(int i) {
+
+        return update(i, random.nextDouble(), true);
+    }
+
+    // same with the uniform random number u drawn by the caller
+    public boolean update(int i, double u, boolean counted) {
+
+        int var = sampleVars[i];
+        boolean value = u <= conditional(var);
+        if(stripe != null && value != state.get(var)) stripe.flips[i]++;
+        state.set(var, value);
+        if(counted) counts.increment(i, value);
+
+        return value;
+    }
+
+    public int beginSweep() {
+
+        return ++iteration;
+    }
+
+    public double probability(String var) {
+
+        return probability(net.id(var));
+    }
+
+    // P(var=true | parents) for the current values of the parents
+    public double probability(int var) {
+
+        return net.cpt(var, net.parentIndex(state, var));
+    }
+
+    // P(child | parents(child)) | parents(child)) with the current value of child and var=true
+    public double childProbability(String child, String var) {
+
+        int c = net.id(child);
+        int slot = 0;
+        int[] parents = net.parentIds();
+        while(parents[net.parentStart(c) + slot] != net.id(var)) slot++;
+
+        double p = net.cpt(c, net.parentIndex(state, c) | (1 << slot));
+        return state.get(c) ? p : 1 - p;
+    }
+
+    public double conditional(String var) {
+
+        return conditional(net.id(var));
+    }
+
+    // P(var=true | markov blanket), from the precompiled table if there is one
+    public double conditional(int var) {
+
+        double[] table = conditionals == null ? null : conditionals.table(var);
+        if(table != null) return table[net.blanketIndex(state, var)];
+
+        return net.conditional(state, var);
+    }
+
+    public void setConditionals(FullConditionals conditionals) {
+
+        this.conditionals = conditionals;
+    }
+
+    public void setBlocks(Blocks blocks) {
+
+        this.blocks = blocks;
+        this.weights = blocks == null ? null : new double[1 << blocks.getMaxBlockSize()];
+        this.siteUniforms = blocks == null ? null : new double[blocks.sites().length];
+    }
+
+    public boolean createSampleValue(double p) {
+
+        return random.nextDouble() <= p;
+    }
+
+    public void setValue(String var, boolean value) {
+
+        int id = net.id(var);
+        if(stripe != null && net.sampleIndex(id) >= 0 && value != state.get(id)) stripe.flips[net.sampleIndex(id)]++;
+        state.set(id, value);
+    }
+
+    public boolean getValue(String var) {
+
+        return state.get(net.id(var));
+    }
+
+    public RandomGenerator getRandom() {
+
+        return random;
+    }
+
+    public CompiledNetwork getNetwork() {
+
+        return net;
+    }
+
+    public ChainState getState() {
+
+        return state;
+    }
+
+    public void increaseSampleCount(String var, boolean value) {
+
+        counts.increment(net.sampleIndex(net.id(var)), value);
+    }
+
+    public void setChainId(int chainId) {
+
+        this.chainId = chainId;
+        if(monitor != null) monitor.setChain(chainId);
+    }
+
+    public int getChainId() {
+
+        return chainId;
+    }
+
+    public int getIteration() {
+
+        return iteration;
+    }
+
+    public void enableDiagnostics() {
+
+        monitor = new ConvergenceMonitor(net);
+        monitor.setChain(chainId);
+    }
+
+    // the caller closes the trace after the run
+    public void setTrace(TraceWriter trace) {
+
+        this.trace = trace;
+    }
+
+    // snapshot at the current sweep boundary, needs a Xoshiro256 generator
+    public Checkpoint checkpoint() {
+
+        return checkpoint(true);
+    }
+
+    private Checkpoint checkpoint(boolean diagnostics) {
+
+        if(!(random instanceof Xoshiro256))
+            throw new IllegalStateException("The state of this random generator cannot be saved.");
+
+        Checkpoint checkpoint = new Checkpoint(net.size(), iteration, burnIn, thinning, state.words().clone(),
+                ((Xoshiro256) random).getState(), counts.copy(), diagnostics && monitor != null ? monitor.copy() : null);
+        checkpoint.chain = chainId;
+
+        return checkpoint;
+    }
+
+    // keeps a snapshot every interval sweeps from now on, 0 disables and drops the snapshots
+    public void setSnapshotInterval(int interval) {
+
+        if(interval < 0)
+            throw new IllegalArgumentException("The snapshot interval must not be negative.");
+
+        snapshotInterval = interval;
+        snapshots = interval == 0 ? null : new TreeMap<>();
+        if(snapshots != null) snapshots.put(iteration, checkpoint(false));
+    }
+
+    /*
+     * Moves the chain to the end of the given sweep: forward from the current state, or from the
+     * closest snapshot before it if that is closer. The result is the same as sweeping there from the
+     * start. Snapshots have no diagnostics, so with diagnostics or a trace a forward seek sweeps all the
+     * way and records every sweep. Seeking backwards drops the diagnostics and is not possible while
+     * a trace is written.
+     */
+    public void seek(int target) {
+
+        Map.Entry<Integer, Checkpoint> snapshot = snapshots == null ? null : snapshots.floorEntry(target);
+        boolean skip = snapshot != null && snapshot.getKey() > iteration && monitor == null && trace == null;
+
+        if(target < iteration || skip) {
+            if(snapshot == null)
+                throw new IllegalArgumentException("There is no snapshot before iteration " + target + ".");
+            if(trace != null && target < iteration)
+                throw new IllegalStateException("Cannot seek backwards while writing a trace.");
+            restore(snapshot.getValue());
+        }
+
+        while(iteration < target) {
+            sweep();
+        }
+    }
+
+    // continues the chain of the checkpoint, conditionals, blocks and trace are kept as they are
+    public void restore(Checkpoint checkpoint) {
+
+        if(checkpoint.size != net.size() || checkpoint.counts.size() != sampleVars.length)
+            throw new IllegalArgumentException("The checkpoint does not belong to this network.");
+
+        Xoshiro256 random = new Xoshiro256(0);
+        random.setState(checkpoint.random);
+        this.random = random;
+
+        long[] words = state.words();
+        System.arraycopy(checkpoint.state, 0, words, 0, words.length);
+
+        iteration = checkpoint.iteration;
+        burnIn = checkpoint.burnIn;
+        thinning = checkpoint.thinning;
+
+        counts.clear();
+        counts.merge(checkpoint.counts);
+        monitor = checkpoint.monitor == null ? null : checkpoint.monitor.copy();
+        if(monitor != null) monitor.setChain(chainId);
+    }
+
+    // metrics can be shared by several engines, every engine gets its own stripe
+    public void setMetrics(SamplerMetrics metrics) {
+
+        this.metrics = metrics;
+        this.stripe = metrics == null ? null : metrics.newStripe();
+    }
+
+    public ConvergenceMonitor getMonitor() {
+
+        return monitor;
+    }
+
+    public SampleCounts getCounts() {
+
+        return counts;
+    }
+
+    public Hashtable<String, Long> getSamples() {
+
+        return counts.getSamples();
+    }
+
+    public Hashtable<String, Double> getNormalizedSamples() {
+
+        return counts.getNormalizedSamples();
+    }
+}
@@ -39,17 +39,15 @@ public class InformationDisplay {
     private Text childVarDisplay;
     private Text probabilityDisplay;
 
-    private Hashtable<String, Integer> samples;
-    private Hashtable<String, Double> normalizedSamples;
+    // counts of the engine, normalized when displayed
+    private SampleCounts counts;
 
 
-    public InformationDisplay(Language lang, BayesNet bn,
-                              Hashtable<String, Integer> samples, Hashtable<String, Double> normalizedSamples) {
+    public InformationDisplay(Language lang, BayesNet bn, SampleCounts counts) {
 
         this.lang = lang;
         this.bn = bn;
-        this.samples = samples;
-        this.normalizedSamples = normalizedSamples;
+        this.counts = counts;
     }
 
     public void init(String[] sampleVars, Translator translator, Hashtable<String, Object> primitives) {
@@ -157,6 +155,13 @@ public class InformationDisplay {
         }
     }
 
+    public void updateNormalized(double resProbability, double normalized) {
+
+        DecimalFormat df = new DecimalFormat("0.0###", new DecimalFormatSymbols(Locale.ENGLISH));
+
+        probabilityDisplay.setText("p = normalize(" + df.format(resProbability) + ") = " + df.format(normalized), null, null);
+    }
+
     public String getSampleCount(final String prefix) {
 
         StringBuilder sb = new StringBuilder();
@@ -172,14 +177,14 @@ public class InformationDisplay {
         sb.append(": ");
 
         conc = "";
-        for(String var: sampleVars) {
+        for(int i = 0; i < counts.size(); i++) {
             sb.append(conc);
             conc = ", ";
 
             sb.append("(");
-            sb.append(samples.get(var+"=true") == null ? 0 : samples.get(var+"=true"));
+            sb.append(counts.getCount(i, true));
             sb.append(", ");
-            sb.append(samples.get(var+"=false") == null ? 0 : samples.get(var+"=false"));
+            sb.append(counts.getCount(i, false));
             sb.append(")");
         }
 
@@ -202,14 +207,14 @@ public class InformationDisplay {
         sb.append(": ");
 
         conc = "";
-        for(String var: sampleVars) {
+        for(int i = 0; i < counts.size(); i++) {
             sb.append(conc);
             conc = ", ";
 
             sb.append("(");
-            sb.append(normalizedSamples.get(var+"=true") == null ? 0 : df.format(normalizedSamples.get(var+"=true")));
+            sb.append(counts.getTotal(i) == 0 ? "0" : df.format(counts.getNormalized(i, true)));
             sb.append(", ");
-            sb.append(normalizedSamples.get(var+"=false") == null ? 0 : df.format(normalizedSamples.get(var+"=false")));
+            sb.append(counts.getTotal(i) == 0 ? "0" : df.format(counts.getNormalized(i, false)));
             sb.append(")");
         }
 
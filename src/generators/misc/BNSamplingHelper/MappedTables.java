@@ -0,0 +1,255 @@
+package generators.misc.BNSamplingHelper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * CPTs of a compiled network in a memory-mapped file, outside of the java heap. Opening only maps
+ * the file, pages are loaded on first access and shared between processes that map the same file.
+ *
+ * Layout (little endian): magic, version, number of variables n, 0, then n + 1 longs with the start
+ * of every variable's block in doubles. A block holds the 2^k cpt entries in cpt index order,
+ * followed by the 2^(k+1) log entries in the order of CompiledNetwork.logCpt.
+ */
+public class MappedTables {
+
+    private static final int MAGIC = 0x424E4354;
+    private static final int VERSION = 1;
+
+    // the data is mapped in chunks of 1 GB, a double never crosses a chunk boundary
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+    private long[] start;
+    private int[] entries;
+    private MappedByteBuffer[] chunks;
+
+
+    private MappedTables() {
+    }
+
+    public static void write(Path file, CompiledNetwork net) throws IOException {
+
+        try(Writer writer = new Writer(file, net.size())) {
+            for(int var = 0; var < net.size(); var++) {
+                writer.put(net.cpt(var));
+            }
+        }
+    }
+
+    /*
+     * Writes the tables variable by variable, without a compiled network on the heap: add() takes the
+     * row-major table of the next variable like CompiledNetwork.load, only one table is in memory at a time.
+     * The offsets in the header are written when the writer is closed.
+     */
+    public static class Writer implements Closeable {
+
+        private FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        private long[] start;
+        private int var = 0;
+
+        // permutation from truth table row to cpt index, per number of parents
+        private int[][] rowToIndex = new int[Integer.SIZE][];
+
+
+        public Writer(Path file, int size) throws IOException {
+
+            if(size < 0)
+                throw new IllegalArgumentException("The number of variables must not be negative.");
+
+            this.start = new long[size + 1];
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+
+            // header with the offsets still 0
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(0);
+            for(int i = 0; i <= size; i++) {
+                flushIfFull();
+                buffer.putLong(0);
+            }
+        }
+
+        // P(var=true | parents) of the next variable, row-major like a truth table (first parent slowest, true first)
+        public void add(double[] table) throws IOException {
+
+            int k = Integer.numberOfTrailingZeros(table.length);
+            if(table.length != 1 << k || k >= Integer.SIZE - 1)
+                throw new IllegalArgumentException("Table of variable " + var + " must have 2^k entries.");
+
+            if(rowToIndex[k] == null) rowToIndex[k] = CompiledNetwork.rowToIndex(k);
+            int[] permutation = rowToIndex[k];
+
+            double[] cpt = new double[table.length];
+            for(int row = 0; row < table.length; row++) {
+                if(!(table[row] >= 0 && table[row] <= 1))
+                    throw new IllegalArgumentException("Table of variable " + var + " has invalid entries (< 0 or > 1).");
+                cpt[permutation[row]] = table[row];
+            }
+
+            put(cpt);
+        }
+
+        // cpt in cpt index order, the log entries are computed like in CompiledNetwork.load
+        private void put(double[] cpt) throws IOException {
+
+            if(var == start.length - 1)
+                throw new IllegalStateException("All " + var + " tables have already been written.");
+
+            for(double p: cpt) {
+                flushIfFull();
+                buffer.putDouble(p);
+            }
+            for(double p: cpt) {
+                flushIfFull();
+                buffer.putDouble(Math.log(1 - p));
+                flushIfFull();
+                buffer.putDouble(Math.log(p));
+            }
+
+            start[var + 1] = start[var] + 3L * cpt.length;
+            var++;
+        }
+
+        private void flushIfFull() throws IOException {
+
+            if(buffer.remaining() >= Long.BYTES) return;
+
+            flush();
+        }
+
+        private void flush() throws IOException {
+
+            buffer.flip();
+            while(buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        private long writeAt(long position) throws IOException {
+
+            buffer.flip();
+            while(buffer.hasRemaining()) position += channel.write(buffer, position);
+            buffer.clear();
+
+            return position;
+        }
+
+        @Override
+        public void close() throws IOException {
+
+            if(channel == null) return;
+
+            try {
+                flush();
+                if(var != start.length - 1)
+                    throw new IllegalStateException("Only " + var + " of " + (start.length - 1) + " tables were written.");
+
+                // patch the offsets in the header
+                long position = 16;
+                for(long s: start) {
+                    if(buffer.remaining() < Long.BYTES) position = writeAt(position);
+                    buffer.putLong(s);
+                }
+                writeAt(position);
+            } finally {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    public static MappedTables open(Path file) throws IOException {
+
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+
+            ByteBuffer header = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, header, 0);
+            if(header.getInt(0) != MAGIC || header.getInt(4) != VERSION)
+                throw new IOException(file + " is not a table file.");
+
+            // the header is checked before anything is allocated or mapped
+            int n = header.getInt(8);
+            long dataStart = 16 + 8L * (n + 1);
+            if(n < 0 || channel.size() < dataStart)
+                throw new IOException(file + " has an invalid number of tables or is truncated.");
+
+            ByteBuffer offsets = ByteBuffer.allocate(8 * (n + 1)).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, offsets, 16);
+            offsets.flip();
+
+            MappedTables tables = new MappedTables();
+            tables.start = new long[n + 1];
+            offsets.asLongBuffer().get(tables.start);
+
+            // every block holds 2^k cpt and 2^(k+1) log entries, 2^k fits into an int like in CompiledNetwork
+            if(tables.start[0] != 0)
+                throw new IOException(file + " has invalid table offsets.");
+            tables.entries = new int[n];
+            for(int var = 0; var < n; var++) {
+                long length = tables.start[var + 1] - tables.start[var];
+                long entries = length / 3;
+                if(length <= 0 || length % 3 != 0 || Long.bitCount(entries) != 1 || entries > 1 << (Integer.SIZE - 2))
+                    throw new IOException(file + " has an invalid table offset for variable " + var + ".");
+                tables.entries[var] = (int) entries;
+            }
+
+            // in doubles, so the size cannot overflow
+            if(tables.start[n] > (channel.size() - dataStart) / 8)
+                throw new IOException(file + " is truncated.");
+            long dataSize = 8 * tables.start[n];
+
+            // the mappings stay valid after the channel is closed
+            int count = (int) ((dataSize + CHUNK_MASK) >>> CHUNK_BITS);
+            tables.chunks = new MappedByteBuffer[count];
+            for(int c = 0; c < count; c++) {
+                long position = (long) c << CHUNK_BITS;
+                long size = Math.min(1L << CHUNK_BITS, dataSize - position);
+                tables.chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, dataStart + position, size);
+                tables.chunks[c].order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            return tables;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of file.");
+        }
+    }
+
+    public int size() {
+
+        return start.length - 1;
+    }
+
+    // number of cpt entries of var, 2^k for k parents
+    public int entries(int var) {
+
+        return entries[var];
+    }
+
+    public double cpt(int var, int index) {
+
+        return get(start[var] + index);
+    }
+
+    public double logCpt(int var, int i) {
+
+        return get(start[var] + entries[var] + i);
+    }
+
+    private double get(long i) {
+
+        long position = i << 3;
+        return chunks[(int) (position >>> CHUNK_BITS)].getDouble((int) (position & CHUNK_MASK));
+    }
+}
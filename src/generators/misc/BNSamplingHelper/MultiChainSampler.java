@@ -0,0 +1,143 @@
+package generators.misc.BNSamplingHelper;
+
+import java.util.Hashtable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class MultiChainSampler {
+
+    private GibbsEngine[] chains;
+    private ForkJoinPool pool;
+
+
+    public MultiChainSampler(CompiledNetwork net, int numberOfChains, long seed) {
+
+        this(net, numberOfChains, seed, ForkJoinPool.commonPool());
+    }
+
+    public MultiChainSampler(CompiledNetwork net, int numberOfChains, long seed, ForkJoinPool pool) {
+
+        if(numberOfChains < 1)
+            throw new IllegalArgumentException("There must be at least one chain.");
+
+        this.pool = pool;
+
+        // the stream of chain i only depends on the user seed and i, not on scheduling
+        Xoshiro256 streams = new Xoshiro256(seed);
+        chains = new GibbsEngine[numberOfChains];
+        for(int i = 0; i < numberOfChains; i++) {
+            chains[i] = new GibbsEngine(net, streams.split());
+            chains[i].setChainId(i);
+        }
+    }
+
+    public void run(int sweeps) {
+
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[chains.length];
+        for(int i = 0; i < chains.length; i++) {
+            GibbsEngine chain = chains[i];
+            tasks[i] = pool.submit(() -> chain.run(sweeps));
+        }
+
+        for(ForkJoinTask<?> task: tasks) {
+            task.join();
+        }
+    }
+
+    public void setBlocks(Blocks blocks) {
+
+        for(GibbsEngine chain: chains) {
+            chain.setBlocks(blocks);
+        }
+    }
+
+    public void setBurnIn(int burnIn) {
+
+        for(GibbsEngine chain: chains) {
+            chain.setBurnIn(burnIn);
+        }
+    }
+
+    public void setThinning(int thinning) {
+
+        for(GibbsEngine chain: chains) {
+            chain.setThinning(thinning);
+        }
+    }
+
+    public void setMetrics(SamplerMetrics metrics) {
+
+        for(GibbsEngine chain: chains) {
+            chain.setMetrics(metrics);
+        }
+    }
+
+    public void setConditionals(FullConditionals conditionals) {
+
+        for(GibbsEngine chain: chains) {
+            chain.setConditionals(conditionals);
+        }
+    }
+
+    // all chains advance in rounds of checkInterval sweeps, so the stopping point does not depend on scheduling
+    public int run(int maxSweeps, StopCondition stop) {
+
+        ConvergenceMonitor[] monitors = new ConvergenceMonitor[chains.length];
+        for(int i = 0; i < chains.length; i++) {
+            if(chains[i].getMonitor() == null) chains[i].enableDiagnostics();
+            monitors[i] = chains[i].getMonitor();
+        }
+
+        int done = 0;
+        while(done < maxSweeps) {
+            int sweeps = Math.min(stop.getCheckInterval(), maxSweeps - done);
+            run(sweeps);
+            done += sweeps;
+
+            if(stop.isReached(monitors)) break;
+        }
+
+        return done;
+    }
+
+    public ConvergenceMonitor[] getMonitors() {
+
+        ConvergenceMonitor[] monitors = new ConvergenceMonitor[chains.length];
+        for(int i = 0; i < chains.length; i++) {
+            monitors[i] = chains[i].getMonitor();
+        }
+
+        return monitors;
+    }
+
+    public int getNumberOfChains() {
+
+        return chains.length;
+    }
+
+    public GibbsEngine getChain(int i) {
+
+        return chains[i];
+    }
+
+    // sample counts of all chains, merged in chain order
+    public SampleCounts getCounts() {
+
+        SampleCounts counts = chains[0].getCounts().copy();
+        for(int i = 1; i < chains.length; i++) {
+            counts.merge(chains[i].getCounts());
+        }
+
+        return counts;
+    }
+
+    public Hashtable<String, Long> getSamples() {
+
+        return getCounts().getSamples();
+    }
+
+    public Hashtable<String, Double> getNormalizedSamples() {
+
+        return getCounts().getNormalizedSamples();
+    }
+}
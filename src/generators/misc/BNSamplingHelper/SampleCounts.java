@@ -0,0 +1,105 @@
+package generators.misc.BNSamplingHelper;
+
+import java.util.Hashtable;
+
+public class SampleCounts {
+
+    // non-evidence variables, counts are indexed by the position in this array
+    private String[] vars;
+
+    private long[] trueCounts;
+    private long[] counts;
+
+
+    public SampleCounts(String[] vars) {
+
+        this.vars = vars;
+        this.trueCounts = new long[vars.length];
+        this.counts = new long[vars.length];
+    }
+
+    public void increment(int i, boolean value) {
+
+        counts[i]++;
+        trueCounts[i] += value ? 1 : 0;
+    }
+
+    // trues of total samples of variable i were true
+    public void add(int i, long trues, long total) {
+
+        counts[i] += total;
+        trueCounts[i] += trues;
+    }
+
+    public void clear() {
+
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+            trueCounts[i] = 0;
+        }
+    }
+
+    public void merge(SampleCounts other) {
+
+        for(int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+            trueCounts[i] += other.trueCounts[i];
+        }
+    }
+
+    public SampleCounts copy() {
+
+        SampleCounts copy = new SampleCounts(vars);
+        copy.merge(this);
+
+        return copy;
+    }
+
+    public int size() {
+
+        return vars.length;
+    }
+
+    public String getVar(int i) {
+
+        return vars[i];
+    }
+
+    public long getCount(int i, boolean value) {
+
+        return value ? trueCounts[i] : counts[i] - trueCounts[i];
+    }
+
+    public long getTotal(int i) {
+
+        return counts[i];
+    }
+
+    // normalization is only computed when a consumer asks for it
+    public double getNormalized(int i, boolean value) {
+
+        return counts[i] == 0 ? 0 : getCount(i, value) / (double) counts[i];
+    }
+
+    public Hashtable<String, Long> getSamples() {
+
+        Hashtable<String, Long> samples = new Hashtable<>();
+        for(int i = 0; i < vars.length; i++) {
+            samples.put(vars[i]+"=true", getCount(i, true));
+            samples.put(vars[i]+"=false", getCount(i, false));
+        }
+
+        return samples;
+    }
+
+    public Hashtable<String, Double> getNormalizedSamples() {
+
+        Hashtable<String, Double> normalizedSamples = new Hashtable<>();
+        for(int i = 0; i < vars.length; i++) {
+            normalizedSamples.put(vars[i]+"=true", getNormalized(i, true));
+            normalizedSamples.put(vars[i]+"=false", getNormalized(i, false));
+        }
+
+        return normalizedSamples;
+    }
+}
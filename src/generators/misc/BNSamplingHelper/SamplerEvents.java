@@ -0,0 +1,146 @@
+package generators.misc.BNSamplingHelper;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/*
+ * Java Flight Recorder events of the samplers. All of them are disabled by default. Enable them in a
+ * .jfc file or with Recording.enable("generators.misc.BNSamplingHelper.Sweep") etc.
+ */
+public final class SamplerEvents {
+
+    // events are only created when enabled, so a disabled event costs one check
+    private static final Sweep SWEEP = new Sweep();
+    private static final ParallelPhase PARALLEL_PHASE = new ParallelPhase();
+    private static final CheckpointWrite CHECKPOINT_WRITE = new CheckpointWrite();
+    private static final ConvergenceCheck CONVERGENCE_CHECK = new ConvergenceCheck();
+
+
+    private SamplerEvents() {
+    }
+
+    static boolean isSweepEnabled() {
+
+        return SWEEP.isEnabled();
+    }
+
+    static boolean isParallelPhaseEnabled() {
+
+        return PARALLEL_PHASE.isEnabled();
+    }
+
+    static boolean isCheckpointWriteEnabled() {
+
+        return CHECKPOINT_WRITE.isEnabled();
+    }
+
+    static boolean isConvergenceCheckEnabled() {
+
+        return CONVERGENCE_CHECK.isEnabled();
+    }
+
+    @Name("generators.misc.BNSamplingHelper.Sweep")
+    @Label("Sweep")
+    @Description("One sweep over all non-evidence variables")
+    @Category({"Gibbs Sampling"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class Sweep extends Event {
+
+        @Label("Network Size")
+        int networkSize;
+
+        @Label("Chain")
+        int chain;
+
+        @Label("Chains")
+        @Description("Number of chains advanced by this sweep")
+        int chains;
+
+        @Label("Iteration")
+        long iteration;
+    }
+
+    @Name("generators.misc.BNSamplingHelper.ParallelPhase")
+    @Label("Parallel Phase")
+    @Description("Parallel update of one colour class of a chromatic sweep")
+    @Category({"Gibbs Sampling"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class ParallelPhase extends Event {
+
+        @Label("Network Size")
+        int networkSize;
+
+        @Label("Chain")
+        int chain;
+
+        @Label("Iteration")
+        long iteration;
+
+        @Label("Colour")
+        int color;
+
+        @Label("Tasks")
+        int tasks;
+    }
+
+    @Name("generators.misc.BNSamplingHelper.CheckpointWrite")
+    @Label("Checkpoint Write")
+    @Category({"Gibbs Sampling"})
+    @Enabled(false)
+    public static class CheckpointWrite extends Event {
+
+        @Label("Network Size")
+        int networkSize;
+
+        @Label("Chain")
+        int chain;
+
+        @Label("Iteration")
+        long iteration;
+
+        @Label("Path")
+        String path;
+
+        @Label("Size")
+        @DataAmount
+        long bytes;
+    }
+
+    @Name("generators.misc.BNSamplingHelper.ConvergenceCheck")
+    @Label("Convergence Check")
+    @Category({"Gibbs Sampling"})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class ConvergenceCheck extends Event {
+
+        @Label("Network Size")
+        int networkSize;
+
+        @Label("Chain")
+        @Description("Checked chain, -1 if several chains are checked together")
+        int chain;
+
+        @Label("Chains")
+        int chains;
+
+        @Label("Sweeps")
+        long sweeps;
+
+        @Label("Minimum ESS")
+        double minEss;
+
+        @Label("Maximum R-hat")
+        double maxRhat;
+
+        @Label("Reached")
+        boolean reached;
+    }
+}
@@ -0,0 +1,301 @@
+package generators.misc.BNSamplingHelper;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Metrics of one or more engines, cheap enough to stay enabled: sweeps and updates go to striped
+ * LongAdders, every engine writes its flips and timings into its own Stripe without locks, and only
+ * one sweep in TIMING_INTERVAL is timed. snapshot() and the MBean getters sum up the stripes.
+ */
+public class SamplerMetrics implements SamplerMetricsMXBean {
+
+    // every TIMING_INTERVAL-th sweep is timed phase by phase
+    public static final int TIMING_INTERVAL = 64;
+
+    // makes the MBean names unique, several generators may run with the same name
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    private String[] vars;
+    private long start = System.nanoTime();
+    private long targetIterations = 0;
+
+    private LongAdder sweeps = new LongAdder();
+    private LongAdder updates = new LongAdder();
+
+    private List<Stripe> stripes = new CopyOnWriteArrayList<>();
+
+    private ObjectName name;
+
+
+    public SamplerMetrics(CompiledNetwork net) {
+
+        int[] sampleVars = net.getSampleVars();
+        vars = new String[sampleVars.length];
+        for(int i = 0; i < vars.length; i++) {
+            vars[i] = net.name(sampleVars[i]);
+        }
+    }
+
+    // counters of one engine, only written by the thread that runs it
+    static class Stripe {
+
+        long iteration;
+        long[] flips;
+
+        long timedUpdates;
+        long cptNanos;
+        long rngNanos;
+        long countingNanos;
+
+
+        private Stripe(int size) {
+
+            flips = new long[size];
+        }
+    }
+
+    Stripe newStripe() {
+
+        Stripe stripe = new Stripe(vars.length);
+        stripes.add(stripe);
+
+        return stripe;
+    }
+
+    void sweepDone(Stripe stripe, long iteration) {
+
+        stripe.iteration = iteration;
+        sweeps.increment();
+        updates.add(vars.length);
+    }
+
+    // number of sweeps a run is expected to take, for the ETA
+    public void setTargetIterations(long targetIterations) {
+
+        this.targetIterations = targetIterations;
+    }
+
+    // registers as generators.misc.BNSamplingHelper:type=SamplerMetrics,name=<name>,instance=<n>, fails if the name is taken
+    public void register(String name) {
+
+        if(this.name != null) throw new IllegalStateException("The sampler metrics are already registered.");
+
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("generators.misc.BNSamplingHelper:type=SamplerMetrics,name="
+                    + ObjectName.quote(name) + ",instance=" + instances.incrementAndGet());
+            server.registerMBean(this, objectName);
+            this.name = objectName;
+        } catch(JMException e) {
+            throw new IllegalStateException("Could not register the sampler metrics.", e);
+        }
+    }
+
+    // registered name, null if not registered
+    public ObjectName getObjectName() {
+
+        return name;
+    }
+
+    public void unregister() {
+
+        if(name == null) return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch(JMException e) {
+            // already gone
+        }
+        name = null;
+    }
+
+    public Snapshot snapshot() {
+
+        return new Snapshot(this);
+    }
+
+    // immutable view of the metrics at one point in time, values of running engines are approximate
+    public static class Snapshot {
+
+        private long iteration;
+        private long targetIterations;
+        private long remaining;
+        private double seconds;
+        private long sweeps;
+        private long updates;
+        private String[] vars;
+        private double[] flipRates;
+        private double cptNanos;
+        private double rngNanos;
+        private double countingNanos;
+
+
+        private Snapshot(SamplerMetrics metrics) {
+
+            seconds = (System.nanoTime() - metrics.start) / 1e9;
+            sweeps = metrics.sweeps.sum();
+            updates = metrics.updates.sum();
+            targetIterations = metrics.targetIterations;
+            vars = metrics.vars;
+
+            long[] flips = new long[vars.length];
+            long timedUpdates = 0;
+            long cpt = 0, rng = 0, counting = 0;
+            iteration = metrics.stripes.isEmpty() ? 0 : Long.MAX_VALUE;
+            for(Stripe stripe: metrics.stripes) {
+                // the slowest chain decides the progress
+                iteration = Math.min(iteration, stripe.iteration);
+                remaining += Math.max(0, targetIterations - stripe.iteration);
+                for(int i = 0; i < flips.length; i++) flips[i] += stripe.flips[i];
+                timedUpdates += stripe.timedUpdates;
+                cpt += stripe.cptNanos;
+                rng += stripe.rngNanos;
+                counting += stripe.countingNanos;
+            }
+
+            flipRates = new double[vars.length];
+            long perVariable = updates / Math.max(1, vars.length);
+            for(int i = 0; i < vars.length; i++) {
+                flipRates[i] = perVariable == 0 ? 0 : flips[i] / (double) perVariable;
+            }
+
+            cptNanos = timedUpdates == 0 ? 0 : cpt / (double) timedUpdates;
+            rngNanos = timedUpdates == 0 ? 0 : rng / (double) timedUpdates;
+            countingNanos = timedUpdates == 0 ? 0 : counting / (double) timedUpdates;
+        }
+
+        public long getIteration() {
+
+            return iteration;
+        }
+
+        public long getTargetIterations() {
+
+            return targetIterations;
+        }
+
+        public double getSweepsPerSecond() {
+
+            return seconds == 0 ? 0 : sweeps / seconds;
+        }
+
+        public double getUpdatesPerSecond() {
+
+            return seconds == 0 ? 0 : updates / seconds;
+        }
+
+        /*
+         * Seconds until every chain reaches the target, NaN without target or progress. The rate is
+         * taken from the sweeps done since the start, not from the iteration: a reused engine may have
+         * started at a later iteration or skipped iterations by seeking.
+         */
+        public double getEtaSeconds() {
+
+            if(targetIterations <= 0 || sweeps == 0) return Double.NaN;
+
+            return remaining * seconds / sweeps;
+        }
+
+        public String[] getVariables() {
+
+            return vars;
+        }
+
+        // fraction of updates of variable i that changed its value
+        public double[] getFlipRates() {
+
+            return flipRates;
+        }
+
+        // sampled timings, averaged per variable update
+        public double getCptLookupNanosPerUpdate() {
+
+            return cptNanos;
+        }
+
+        public double getRngNanosPerUpdate() {
+
+            return rngNanos;
+        }
+
+        public double getCountingNanosPerUpdate() {
+
+            return countingNanos;
+        }
+
+        @Override
+        public String toString() {
+
+            return String.format("Iteration: %d/%d, %.0f sweeps/s, %.0f updates/s, ETA: %.1f s, per update: cpt %.1f ns, rng %.1f ns, counting %.1f ns",
+                    iteration, targetIterations, getSweepsPerSecond(), getUpdatesPerSecond(), getEtaSeconds(),
+                    cptNanos, rngNanos, countingNanos);
+        }
+    }
+
+    @Override
+    public long getIteration() {
+
+        return snapshot().getIteration();
+    }
+
+    @Override
+    public long getTargetIterations() {
+
+        return targetIterations;
+    }
+
+    @Override
+    public double getSweepsPerSecond() {
+
+        return snapshot().getSweepsPerSecond();
+    }
+
+    @Override
+    public double getUpdatesPerSecond() {
+
+        return snapshot().getUpdatesPerSecond();
+    }
+
+    @Override
+    public double getEtaSeconds() {
+
+        return snapshot().getEtaSeconds();
+    }
+
+    @Override
+    public String[] getVariables() {
+
+        return vars;
+    }
+
+    @Override
+    public double[] getFlipRates() {
+
+        return snapshot().getFlipRates();
+    }
+
+    @Override
+    public double getCptLookupNanosPerUpdate() {
+
+        return snapshot().getCptLookupNanosPerUpdate();
+    }
+
+    @Override
+    public double getRngNanosPerUpdate() {
+
+        return snapshot().getRngNanosPerUpdate();
+    }
+
+    @Override
+    public double getCountingNanosPerUpdate() {
+
+        return snapshot().getCountingNanosPerUpdate();
+    }
+}
@@ -0,0 +1,25 @@
+package generators.misc.BNSamplingHelper;
+
+// JMX view of SamplerMetrics, every getter reads a fresh snapshot
+public interface SamplerMetricsMXBean {
+
+    long getIteration();
+
+    long getTargetIterations();
+
+    double getSweepsPerSecond();
+
+    double getUpdatesPerSecond();
+
+    double getEtaSeconds();
+
+    String[] getVariables();
+
+    double[] getFlipRates();
+
+    double getCptLookupNanosPerUpdate();
+
+    double getRngNanosPerUpdate();
+
+    double getCountingNanosPerUpdate();
+}
@@ -0,0 +1,72 @@
+package generators.misc.BNSamplingHelper;
+
+// ends a run once the effective sample size and/or R-hat reach their target, checked every checkInterval sweeps
+public class StopCondition {
+
+    private double targetEss;
+    private double maxRhat;
+    private int checkInterval;
+
+
+    // a target <= 0 disables that criterion
+    public StopCondition(double targetEss, double maxRhat, int checkInterval) {
+
+        if(checkInterval <= 0)
+            throw new IllegalArgumentException("checkInterval must be greater than 0.");
+
+        this.targetEss = targetEss;
+        this.maxRhat = maxRhat;
+        this.checkInterval = checkInterval;
+    }
+
+    public static StopCondition ess(double targetEss) {
+
+        return new StopCondition(targetEss, 0, 1000);
+    }
+
+    public static StopCondition rhat(double maxRhat) {
+
+        return new StopCondition(0, maxRhat, 1000);
+    }
+
+    public boolean isReached(ConvergenceMonitor... chains) {
+
+        if(!SamplerEvents.isConvergenceCheckEnabled()) return check(chains);
+
+        SamplerEvents.ConvergenceCheck event = new SamplerEvents.ConvergenceCheck();
+        event.begin();
+
+        boolean reached = check(chains);
+        event.end();
+
+        if(event.shouldCommit()) {
+            event.networkSize = chains[0].getNetworkSize();
+            event.chain = chains.length == 1 ? chains[0].getChain() : -1;
+            event.chains = chains.length;
+            event.sweeps = chains[0].getSweeps();
+            event.minEss = ConvergenceMonitor.minEss(chains);
+            event.maxRhat = chains.length > 1 ? ConvergenceMonitor.maxRhat(chains) : Double.NaN;
+            event.reached = reached;
+            event.commit();
+        }
+
+        return reached;
+    }
+
+    private boolean check(ConvergenceMonitor... chains) {
+
+        if(targetEss <= 0 && maxRhat <= 0) return false;
+
+        if(targetEss > 0 && ConvergenceMonitor.minEss(chains) < targetEss) return false;
+
+        // R-hat needs at least two chains, a single chain only uses the ESS criterion
+        if(maxRhat > 0 && chains.length > 1 && ConvergenceMonitor.maxRhat(chains) > maxRhat) return false;
+
+        return targetEss > 0 || chains.length > 1;
+    }
+
+    public int getCheckInterval() {
+
+        return checkInterval;
+    }
+}
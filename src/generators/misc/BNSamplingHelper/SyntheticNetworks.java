@@ -0,0 +1,126 @@
+package generators.misc.BNSamplingHelper;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// random DAGs for the benchmarks and SelfCheck: every node gets up to maxParents parents among the previous nodes
+public class SyntheticNetworks {
+
+    public String[] vars;
+    public String[] sampleVars;
+    public int[][] parents;
+    public double[][] tables;
+    public boolean[] values;
+
+    // the same network in the layout of BayesNet.init
+    public String[] evidenceValues;
+
+
+    public static SyntheticNetworks create(int n, int maxParents, long seed) {
+
+        if(n == 4) return example();
+
+        SyntheticNetworks net = new SyntheticNetworks();
+        Random random = new Random(seed);
+
+        net.vars = new String[n];
+        net.parents = new int[n][];
+        net.tables = new double[n][];
+        net.values = new boolean[n];
+        for(int i = 0; i < n; i++) {
+
+            net.vars[i] = "V" + i;
+
+            int k = Math.min(i, random.nextInt(maxParents + 1));
+            // distinct parents, mostly close to the node like in layered networks
+            int[] parents = new int[k];
+            for(int j = 0; j < k; j++) {
+                int parent;
+                do {
+                    parent = Math.max(0, i - 1 - random.nextInt(Math.min(i, 64)));
+                } while(contains(parents, j, parent));
+                parents[j] = parent;
+            }
+            Arrays.sort(parents);
+            net.parents[i] = parents;
+
+            net.tables[i] = new double[1 << k];
+            for(int row = 0; row < net.tables[i].length; row++) {
+                net.tables[i][row] = 0.05 + 0.9 * random.nextDouble();
+            }
+        }
+
+        // every tenth node is evidence
+        int evidence = (n + 9) / 10;
+        net.sampleVars = new String[n - evidence];
+        net.evidenceValues = new String[evidence];
+        for(int i = 0, s = 0, e = 0; i < n; i++) {
+            if(i % 10 == 0) {
+                net.values[i] = random.nextBoolean();
+                net.evidenceValues[e++] = String.valueOf(net.values[i]);
+            } else {
+                net.sampleVars[s++] = net.vars[i];
+            }
+        }
+
+        return net;
+    }
+
+    private static boolean contains(int[] array, int length, int value) {
+
+        for(int i = 0; i < length; i++) {
+            if(array[i] == value) return true;
+        }
+
+        return false;
+    }
+
+    // the network from GibbsSampling.main
+    public static SyntheticNetworks example() {
+
+        SyntheticNetworks net = new SyntheticNetworks();
+
+        net.vars = new String[]{"Y", "A", "X", "B"};
+        net.sampleVars = new String[]{"Y", "X"};
+        net.parents = new int[][]{{}, {0}, {0}, {1, 2}};
+        net.tables = new double[][]{{0.3}, {0.1, 0.2}, {0.4, 0.7}, {0.9, 0.99, 0.3, 0.6}};
+        net.values = new boolean[]{false, true, false, false};
+        net.evidenceValues = new String[]{"true", "false"};
+
+        return net;
+    }
+
+    public CompiledNetwork compile() {
+
+        int[] sampleIds = new int[sampleVars.length];
+        for(int i = 0, s = 0; i < vars.length; i++) {
+            if(s < sampleVars.length && sampleVars[s].equals(vars[i])) sampleIds[s++] = i;
+        }
+
+        return CompiledNetwork.load(vars, parents, tables, sampleIds, values);
+    }
+
+    public int[][] adjacencyMatrix() {
+
+        int[][] adjacencyMatrix = new int[vars.length][vars.length];
+        for(int i = 0; i < vars.length; i++) {
+            for(int parent: parents[i]) adjacencyMatrix[parent][i] = 1;
+        }
+
+        return adjacencyMatrix;
+    }
+
+    // one column per variable, as in the Probabilities primitive
+    public double[][] columns() {
+
+        int rows = 1;
+        for(double[] table: tables) rows = Math.max(rows, table.length);
+
+        double[][] p = new double[rows][vars.length];
+        for(int i = 0; i < vars.length; i++) {
+            for(int row = 0; row < tables[i].length; row++) p[row][i] = tables[i][row];
+        }
+
+        return p;
+    }
+}
@@ -0,0 +1,218 @@
+package generators.misc.BNSamplingHelper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Memory-mapped, read-only view of a trace file written by TraceWriter.
+ *
+ * Layout (little endian): magic, version, number of variables m, block size, number of records,
+ * iteration stride, position of the block index, then m names (length + UTF-8), padded to 8 bytes.
+ * The records follow as one bit stream of longs: bit r * m + i is the value of the i-th non-evidence
+ * variable in record r, the last long is padded with zeros. The block index holds the iteration of
+ * the first record of every block.
+ */
+public class Trace {
+
+    // the bit stream is mapped in chunks of 1 GB, a long never crosses a chunk boundary
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+    private String[] vars;
+    private int blockSize;
+    private long records;
+    private long stride;
+    private long[] index;
+
+    private int words;
+    private MappedByteBuffer[] chunks;
+
+
+    private Trace() {
+    }
+
+    public static Trace open(Path file) throws IOException {
+
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+
+            ByteBuffer header = read(channel, 0, TraceWriter.NAMES);
+            if(header.getInt(0) != TraceWriter.MAGIC || header.getInt(4) != TraceWriter.VERSION)
+                throw new IOException(file + " is not a trace file.");
+
+            // every size in the header is checked against the file before it is allocated or mapped
+            long fileSize = channel.size();
+            Trace trace = new Trace();
+            int m = header.getInt(8);
+            trace.blockSize = header.getInt(12);
+            trace.records = header.getLong(TraceWriter.RECORDS);
+            trace.stride = header.getLong(TraceWriter.STRIDE);
+            long indexPosition = header.getLong(TraceWriter.INDEX);
+            if(indexPosition == 0)
+                throw new IOException(file + " was not closed properly.");
+            if(m < 0 || m > (fileSize - TraceWriter.NAMES) / Integer.BYTES || trace.blockSize <= 0
+                    || trace.records < 0 || trace.stride < 0)
+                throw new IOException(file + " has an invalid header.");
+
+            long position = TraceWriter.NAMES;
+            trace.vars = new String[m];
+            for(int i = 0; i < m; i++) {
+                int length = read(channel, position, Integer.BYTES).getInt(0);
+                if(length < 0 || length > fileSize - position - Integer.BYTES)
+                    throw new IOException(file + " has an invalid name of variable " + i + ".");
+                byte[] name = new byte[length];
+                read(channel, position + Integer.BYTES, length).get(name);
+                trace.vars[i] = new String(name, StandardCharsets.UTF_8);
+                position += Integer.BYTES + length;
+            }
+            long dataStart = (position + Long.BYTES - 1) & -Long.BYTES;
+
+            // in bits of the stream, so records * m cannot overflow
+            long capacity = Math.max(0, fileSize - dataStart) / Long.BYTES * Long.SIZE;
+            if(m > 0 && trace.records > capacity / m)
+                throw new IOException(file + " is truncated.");
+            trace.words = (m + 63) >>> 6;
+            long dataSize = (trace.records * m + 63) / 64 * Long.BYTES;
+
+            long blocks = (trace.records + trace.blockSize - 1) / trace.blockSize;
+            if(indexPosition < dataStart + dataSize || blocks > (fileSize - indexPosition) / Long.BYTES
+                    || blocks > Integer.MAX_VALUE / Long.BYTES)
+                throw new IOException(file + " has an invalid block index.");
+            trace.index = new long[(int) blocks];
+            read(channel, indexPosition, (int) blocks * Long.BYTES).asLongBuffer().get(trace.index);
+
+            int count = (int) ((dataSize + CHUNK_MASK) >>> CHUNK_BITS);
+            trace.chunks = new MappedByteBuffer[count];
+            for(int c = 0; c < count; c++) {
+                long offset = (long) c << CHUNK_BITS;
+                long size = Math.min(1L << CHUNK_BITS, dataSize - offset);
+                trace.chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, dataStart + offset, size);
+                trace.chunks[c].order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            return trace;
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of file.");
+        }
+        buffer.flip();
+
+        return buffer;
+    }
+
+    public String[] getVars() {
+
+        return vars;
+    }
+
+    public long size() {
+
+        return records;
+    }
+
+    // iteration (sweep number) of record r
+    public long iteration(long r) {
+
+        return index[(int) (r / blockSize)] + (r % blockSize) * stride;
+    }
+
+    // first record with an iteration >= the given one, size() if there is none
+    public long find(long iteration) {
+
+        int lo = 0, hi = index.length;
+        while(lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if(index[mid] <= iteration) lo = mid + 1;
+            else hi = mid;
+        }
+
+        long r = Math.max(0, lo - 1) * (long) blockSize;
+        while(r < records && iteration(r) < iteration) r++;
+
+        return r;
+    }
+
+    // w-th word of record r, bit j is the value of the (64 * w + j)-th non-evidence variable
+    public long word(long r, int w) {
+
+        int count = Math.min(Long.SIZE, vars.length - (w << 6));
+        return bits(r * vars.length + ((long) w << 6), count);
+    }
+
+    // value of the i-th non-evidence variable in record r
+    public boolean get(long r, int i) {
+
+        long bit = r * vars.length + i;
+        return (streamWord(bit >>> 6) & (1L << bit)) != 0;
+    }
+
+    // count bits of the stream starting at bit position, they may span two longs
+    private long bits(long position, int count) {
+
+        int shift = (int) (position & 63);
+        long bits = streamWord(position >>> 6) >>> shift;
+        if(shift + count > Long.SIZE) bits |= streamWord((position >>> 6) + 1) << (Long.SIZE - shift);
+
+        return count == Long.SIZE ? bits : bits & ((1L << count) - 1);
+    }
+
+    private long streamWord(long i) {
+
+        long position = i << 3;
+        return chunks[(int) (position >>> CHUNK_BITS)].getLong((int) (position & CHUNK_MASK));
+    }
+
+    // writes record r into the state, the trace must belong to this network
+    public void restore(long r, CompiledNetwork net, ChainState state) {
+
+        int[] sampleVars = net.getSampleVars();
+        if(sampleVars.length != vars.length)
+            throw new IllegalArgumentException("The trace does not belong to this network.");
+
+        for(int w = 0; w < words; w++) {
+            long word = word(r, w);
+            int end = Math.min(vars.length, (w + 1) << 6);
+            for(int i = w << 6; i < end; i++) {
+                state.set(sampleVars[i], (word & (1L << i)) != 0);
+            }
+        }
+    }
+
+    public SampleCounts counts() {
+
+        return counts(0, records);
+    }
+
+    // sample counts over the records [from, to)
+    public SampleCounts counts(long from, long to) {
+
+        long[] trueCounts = new long[vars.length];
+        for(long r = from; r < to; r++) {
+            for(int w = 0; w < words; w++) {
+                long word = word(r, w);
+                while(word != 0) {
+                    trueCounts[(w << 6) + Long.numberOfTrailingZeros(word)]++;
+                    word &= word - 1;
+                }
+            }
+        }
+
+        SampleCounts counts = new SampleCounts(vars);
+        for(int i = 0; i < vars.length; i++) {
+            counts.add(i, trueCounts[i], to - from);
+        }
+
+        return counts;
+    }
+}
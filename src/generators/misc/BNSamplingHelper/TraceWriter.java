@@ -0,0 +1,164 @@
+package generators.misc.BNSamplingHelper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * Writes the kept sweeps of a chain to a bit-packed trace file, one bit per non-evidence variable
+ * and sweep. The records are one continuous bit stream without padding, the block index at the end
+ * stores the iteration of the first record of every block. See Trace for the layout and for reading.
+ */
+public class TraceWriter implements Closeable {
+
+    static final int MAGIC = 0x424E5452;
+    static final int VERSION = 2;
+
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    // header positions of the fields that are only known when the trace is closed
+    static final int RECORDS = 16;
+    static final int STRIDE = 24;
+    static final int INDEX = 32;
+    static final int NAMES = 40;
+
+    private FileChannel channel;
+    private int[] sampleVars;
+    private int blockSize;
+
+    private long[] record;
+    private ByteBuffer buffer;
+
+    // bits of the stream that do not fill a whole word yet
+    private long pending = 0;
+    private int pendingBits = 0;
+
+    private long records = 0;
+    private long stride = 0;
+    private long lastIteration;
+
+    // first iteration of every block, grows with the trace
+    private long[] index = new long[16];
+
+
+    public TraceWriter(Path file, CompiledNetwork net) throws IOException {
+
+        this(file, net, DEFAULT_BLOCK_SIZE);
+    }
+
+    public TraceWriter(Path file, CompiledNetwork net, int blockSize) throws IOException {
+
+        if(blockSize <= 0)
+            throw new IllegalArgumentException("The block size must be greater than 0.");
+
+        this.sampleVars = net.getSampleVars();
+        this.blockSize = blockSize;
+        this.record = new long[(sampleVars.length + 63) >>> 6];
+        this.buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        // header, records, stride and index position are patched in close()
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(sampleVars.length).putInt(blockSize);
+        buffer.putLong(0).putLong(0).putLong(0);
+        for(int var: sampleVars) {
+            byte[] name = net.name(var).getBytes(StandardCharsets.UTF_8);
+            flush(Integer.BYTES + name.length);
+            buffer.putInt(name.length).put(name);
+        }
+        while(buffer.position() % Long.BYTES != 0) buffer.put((byte) 0);
+    }
+
+    // appends the values of the non-evidence variables, kept sweeps must be equally spaced
+    public void append(ChainState state, long iteration) throws IOException {
+
+        if(records == 1) stride = iteration - lastIteration;
+        else if(records > 1 && iteration - lastIteration != stride)
+            throw new IllegalArgumentException("The iterations of a trace must be equally spaced.");
+
+        if(records % blockSize == 0) {
+            int block = (int) (records / blockSize);
+            if(block == index.length) index = Arrays.copyOf(index, 2 * block);
+            index[block] = iteration;
+        }
+
+        for(int w = 0; w < record.length; w++) record[w] = 0;
+        for(int i = 0; i < sampleVars.length; i++) {
+            record[i >>> 6] |= (long) state.bit(sampleVars[i]) << i;
+        }
+
+        for(int w = 0; w < record.length; w++) {
+            put(record[w], Math.min(Long.SIZE, sampleVars.length - (w << 6)));
+        }
+
+        lastIteration = iteration;
+        records++;
+    }
+
+    // appends the lowest count bits of bits to the stream
+    private void put(long bits, int count) throws IOException {
+
+        pending |= bits << pendingBits;
+        if(pendingBits + count < Long.SIZE) {
+            pendingBits += count;
+            return;
+        }
+
+        flush(Long.BYTES);
+        buffer.putLong(pending);
+
+        // bits that did not fit into the finished word
+        pending = pendingBits == 0 ? 0 : bits >>> (Long.SIZE - pendingBits);
+        pendingBits = pendingBits + count - Long.SIZE;
+    }
+
+    private void flush(int needed) throws IOException {
+
+        if(buffer.remaining() >= needed) return;
+
+        buffer.flip();
+        while(buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    public long getRecords() {
+
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+
+        if(!channel.isOpen()) return;
+
+        try {
+            // the last word of the stream is padded with zeros
+            if(pendingBits > 0) {
+                flush(Long.BYTES);
+                buffer.putLong(pending);
+            }
+
+            int blocks = (int) ((records + blockSize - 1) / blockSize);
+            for(int block = 0; block < blocks; block++) {
+                flush(Long.BYTES);
+                buffer.putLong(index[block]);
+            }
+            buffer.flip();
+            while(buffer.hasRemaining()) channel.write(buffer);
+
+            long indexPosition = channel.size() - (long) blocks * Long.BYTES;
+            ByteBuffer patch = ByteBuffer.allocate(3 * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            patch.putLong(records).putLong(stride).putLong(indexPosition).flip();
+            while(patch.hasRemaining()) channel.write(patch, RECORDS + patch.position());
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package generators.misc.BNSamplingHelper;
+
+import java.util.random.RandomGenerator;
+
+/*
+ * xoshiro256** (Blackman, Vigna): small, fast and not synchronized, so every chain or worker needs
+ * its own instance. split() hands out streams that are 2^128 draws apart, all derived from one seed.
+ */
+public class Xoshiro256 implements RandomGenerator {
+
+    private static final long[] JUMP = {
+            0x180EC6D33CFD0ABAL, 0xD5A61266F0C9392CL, 0xA9582618E03FC9AAL, 0x39ABDC4529B1661CL
+    };
+
+    private long s0, s1, s2, s3;
+
+
+    public Xoshiro256(long seed) {
+
+        // splitmix64 expands the seed, so similar seeds still give unrelated states
+        long z = seed;
+        s0 = mix(z += 0x9E3779B97F4A7C15L);
+        s1 = mix(z += 0x9E3779B97F4A7C15L);
+        s2 = mix(z += 0x9E3779B97F4A7C15L);
+        s3 = mix(z += 0x9E3779B97F4A7C15L);
+    }
+
+    private Xoshiro256(long[] state) {
+
+        setState(state);
+    }
+
+    private static long mix(long z) {
+
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+
+        return z ^ (z >>> 31);
+    }
+
+    @Override
+    public long nextLong() {
+
+        long result = Long.rotateLeft(s1 * 5, 7) * 9;
+        long t = s1 << 17;
+
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft(s3, 45);
+
+        return result;
+    }
+
+    @Override
+    public double nextDouble() {
+
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    // bulk draw, fills the whole buffer with uniform numbers in [0, 1)
+    public void nextDoubles(double[] buffer) {
+
+        long a = s0, b = s1, c = s2, d = s3;
+        for(int i = 0; i < buffer.length; i++) {
+            long result = Long.rotateLeft(b * 5, 7) * 9;
+            long t = b << 17;
+            c ^= a;
+            d ^= b;
+            b ^= c;
+            a ^= d;
+            c ^= t;
+            d = Long.rotateLeft(d, 45);
+            buffer[i] = (result >>> 11) * 0x1.0p-53;
+        }
+        s0 = a; s1 = b; s2 = c; s3 = d;
+    }
+
+    // advances this generator by 2^128 draws
+    public void jump() {
+
+        long t0 = 0, t1 = 0, t2 = 0, t3 = 0;
+        for(long jump: JUMP) {
+            for(int b = 0; b < 64; b++) {
+                if((jump & (1L << b)) != 0) {
+                    t0 ^= s0;
+                    t1 ^= s1;
+                    t2 ^= s2;
+                    t3 ^= s3;
+                }
+                nextLong();
+            }
+        }
+        s0 = t0; s1 = t1; s2 = t2; s3 = t3;
+    }
+
+    // returns a generator with the current stream and moves this one to the next, non-overlapping stream
+    public Xoshiro256 split() {
+
+        Xoshiro256 stream = new Xoshiro256(getState());
+        jump();
+
+        return stream;
+    }
+
+    public long[] getState() {
+
+        return new long[]{s0, s1, s2, s3};
+    }
+
+    public void setState(long[] state) {
+
+        if(state.length != 4 || (state[0] | state[1] | state[2] | state[3]) == 0)
+            throw new IllegalArgumentException("The state must be four longs, not all 0.");
+
+        s0 = state[0]; s1 = state[1]; s2 = state[2]; s3 = state[3];
+    }
+
+    // fills buffer from any generator, in bulk if it supports it
+    static void nextDoubles(RandomGenerator random, double[] buffer) {
+
+        if(random instanceof Xoshiro256) {
+            ((Xoshiro256) random).nextDoubles(buffer);
+            return;
+        }
+        for(int i = 0; i < buffer.length; i++) {
+            buffer[i] = random.nextDouble();
+        }
+    }
+}
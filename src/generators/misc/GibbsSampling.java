@@ -18,6 +18,12 @@ import generators.framework.GeneratorType;
 import generators.framework.ValidatingGenerator;
 
 import java.awt.*;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.List;
 
@@ -37,23 +43,39 @@ public class GibbsSampling implements ValidatingGenerator {
     private String resourceName;
     private Locale locale;
 
-    private Random random;
-
     private Text header;
 
     private Code code;
     private BayesNet bn;
     private InformationDisplay info;
 
+    // set while generate() writes to a Writer, the finished steps are written after every step
+    private AnimationStream stream;
+
+    // headless sampler, the animation only visualizes its steps
+    private GibbsEngine engine;
+
+    // network, seed, burn-in and thinning the engine was created for. the engine and its snapshots are
+    // kept for the next animation of the same input, so it does not sample the skipped iterations again
+    private String engineKey;
+    private static final int SNAPSHOT_INTERVAL = 1000;
+
+    // metrics of the engine, also registered as MBean while the animation is generated
+    private SamplerMetrics metrics;
+
     // iteration number, increased when sample() is called
     private int iteration = 0;
     private int numberOfIterations = 10;
 
-    // variables and their sample counts
+    // rendering policy: animatedIterations starting at firstAnimatedIteration are fully animated,
+    // earlier ones are sampled headless, later ones only shown as a summary every summaryInterval-th iteration
+    private int firstAnimatedIteration = 1;
+    private int animatedIterations = 10;
+    private int summaryInterval = 1;
+
+    // variables
     private String[] vars;
     private String[] sampleVars;
-    private Hashtable<String, Integer> samples;
-    private Hashtable<String, Double> normalizedSamples;
 
     // for questions
     private String WRONG_ASW;
@@ -67,21 +89,18 @@ public class GibbsSampling implements ValidatingGenerator {
     }
 
     public void init() {
-        lang = new AnimalScript("Gibbs Sampling", "Moritz Schramm, Moritz Andres", 800, 600);
+        init(new AnimalScript("Gibbs Sampling", "Moritz Schramm, Moritz Andres", 800, 600));
+    }
+
+    private void init(Language lang) {
+        this.lang = lang;
         lang.setStepMode(true);
         lang.setInteractionType(Language.INTERACTION_TYPE_AVINTERACTION);
 
-        random = new Random();
-
         iteration = 0;
 
-        samples = new Hashtable<>();
-        normalizedSamples = new Hashtable<>();
-
         code = new Code(lang, translator);
         bn = new BayesNet(lang);
-        info = new InformationDisplay(lang, bn, samples, normalizedSamples);
-
 
         RIGHT_ASW = translator.translateMessage("right_asw");
         WRONG_ASW = translator.translateMessage("wrong_asw");
@@ -90,20 +109,67 @@ public class GibbsSampling implements ValidatingGenerator {
     /* methods used to create animation */
     public String generate(AnimationPropertiesContainer props, Hashtable<String, Object> primitives) {
 
+        create(props, primitives);
+
+        return lang.toString();
+    }
+
+    // writes the animation step by step to out instead of returning it as one string
+    public void generate(AnimationPropertiesContainer props, Hashtable<String, Object> primitives, Writer out) {
+
+        // only used for this call, later calls of generate() write to the previous language again
+        Language previous = lang;
+        init(new AnimalScript("Gibbs Sampling", "Moritz Schramm, Moritz Andres", 800, 600));
+        stream = new AnimationStream(lang, out);
+        try {
+            create(props, primitives);
+            stream.flush();
+        } finally {
+            stream = null;
+            if(previous != null) init(previous);
+        }
+    }
+
+    private void create(AnimationPropertiesContainer props, Hashtable<String, Object> primitives) {
+
         // init vars and sample arrays
         vars = (String []) primitives.get("Variables");
         sampleVars = (String []) primitives.get("Non-evidence variables");
 
-        // set seed
-        random.setSeed((int) primitives.get("Seed"));
-
         // set number of iterations
         numberOfIterations = (int) primitives.get("NumberOfSamples");
+        animatedIterations = primitives.get("AnimatedIterations") == null ? numberOfIterations : (int) primitives.get("AnimatedIterations");
+        summaryInterval = primitives.get("SummaryInterval") == null ? 1 : (int) primitives.get("SummaryInterval");
+        firstAnimatedIteration = primitives.get("FirstAnimatedIteration") == null ? 1 : (int) primitives.get("FirstAnimatedIteration");
 
         // init graph, probabilities and values
         GraphProperties graphProps = (GraphProperties) props.getPropertiesByName("graphProps");
         bn.init(primitives, graphProps, vars, sampleVars);
 
+        // init sampler with seed, or reuse the one of the previous animation
+        String key = Arrays.deepToString(new Object[]{primitives.get("Seed"), primitives.get("BurnIn"), primitives.get("Thinning"),
+                bn.getVars(), bn.getSampleVars(), bn.getAdjacencyMatrix(), bn.getTables(), primitives.get("Values")});
+        if(engine == null || !key.equals(engineKey)) {
+            engine = new GibbsEngine(bn, new Xoshiro256((int) primitives.get("Seed")));
+            if(primitives.get("BurnIn") != null) engine.setBurnIn((int) primitives.get("BurnIn"));
+            if(primitives.get("Thinning") != null) engine.setThinning((int) primitives.get("Thinning"));
+            engine.setSnapshotInterval(SNAPSHOT_INTERVAL);
+            engineKey = key;
+        }
+        info = new InformationDisplay(lang, bn, engine.getCounts());
+
+        metrics = new SamplerMetrics(engine.getNetwork());
+        metrics.setTargetIterations(numberOfIterations);
+        engine.setMetrics(metrics);
+        metrics.register(getName());
+        try {
+            animate(props, primitives);
+        } finally {
+            metrics.unregister();
+        }
+    }
+
+    private void animate(AnimationPropertiesContainer props, Hashtable<String, Object> primitives) {
 
         // header creation
         TextProperties headerProps = new TextProperties();
@@ -112,7 +178,7 @@ public class GibbsSampling implements ValidatingGenerator {
         header = lang.newText(new Coordinates(20, 30), "Gibbs Sampling",
                 "header", null, headerProps);
 
-        lang.nextStep(translator.translateMessage("introTOC"));
+        nextStep(translator.translateMessage("introTOC"));
 
         // show introduction text (creates new step)
         showIntro();
@@ -134,7 +200,13 @@ public class GibbsSampling implements ValidatingGenerator {
         // graph creation
         bn.add();
 
-        iteration++;
+        // the iterations before the animated window are only sampled, from the closest snapshot of a previous animation
+        engine.seek(firstAnimatedIteration - 1);
+        iteration = engine.getIteration();
+        if(firstAnimatedIteration > 1) showSummary();
+        int lastAnimatedIteration = firstAnimatedIteration - 1 + animatedIterations;
+
+        iteration = engine.beginSweep();
         info.updateInformation(iteration);
         code.highlight(0);
 
@@ -146,34 +218,63 @@ public class GibbsSampling implements ValidatingGenerator {
         question1.addAnswer(translator.translateMessage("q1_asw3"), 1, RIGHT_ASW + feedback_q1);
         lang.addMCQuestion(question1);
 
-        lang.nextStep("1. Iteration");
+        nextStep(iteration + ". Iteration");
 
         sample();
 
-        for(int i = 0; i < numberOfIterations - 1; i++) {
+        // a summary is only shown if a counted sweep changed the statistics since the last one, not during burn-in
+        boolean countedSinceSummary = false;
 
-            code.highlight(0);
-            iteration++;
-            info.updateInformation(iteration);
-            lang.nextStep(iteration + ". Iteration");
-            sample();
+        while(iteration < numberOfIterations) {
+
+            if(iteration < lastAnimatedIteration) {
+
+                code.highlight(0);
+                iteration = engine.beginSweep();
+                info.updateInformation(iteration);
+                nextStep(iteration + ". Iteration");
+                sample();
+
+            } else {
+
+                // sampled at full speed, without any animation steps
+                engine.sweep();
+                iteration = engine.getIteration();
+                countedSinceSummary |= engine.isCounted();
+
+                if(countedSinceSummary && ((iteration - lastAnimatedIteration) % summaryInterval == 0 || iteration == numberOfIterations)) {
+                    showSummary();
+                    countedSinceSummary = false;
+                }
+            }
         }
 
         code.highlight(6);
 
-        lang.nextStep();
+        nextStep();
 
         code.unhighlight(6);
         code.highlight(7);
 
-        lang.nextStep(translator.translateMessage("outroTOC"));
+        nextStep(translator.translateMessage("outroTOC"));
 
         showOutro();
 
 
         lang.finalizeGeneration();
+    }
 
-        return lang.toString();
+    private void nextStep() {
+
+        nextStep(null);
+    }
+
+    private void nextStep(String label) {
+
+        if(label == null) lang.nextStep();
+        else lang.nextStep(label);
+
+        if(stream != null) stream.flush();
     }
 
     private void showIntro() {
@@ -196,7 +297,7 @@ public class GibbsSampling implements ValidatingGenerator {
             lineCounter++;
         }
 
-        lang.nextStep();
+        nextStep();
 
         for(Text intro : intro_ts)
             intro.hide();
@@ -237,7 +338,23 @@ public class GibbsSampling implements ValidatingGenerator {
                 info.getNormalizedSampleCount(translator.translateMessage("normValue")+" (true, false) " + translator.translateMessage("of") + " "),
                 "propFalseDisplayOutro", null, props);
 
-        lang.nextStep();
+        nextStep();
+    }
+
+
+
+    private void showSummary() {
+
+        code.highlight(0);
+
+        for(String var: sampleVars) {
+            bn.highlightNode(var, engine.getValue(var) ? BayesNet.TRUE_COLOR : BayesNet.FALSE_COLOR);
+        }
+
+        info.updateInformation(iteration);
+        nextStep(iteration + ". Iteration");
+
+        code.unhighlight(0);
     }
 
 
@@ -254,16 +371,16 @@ public class GibbsSampling implements ValidatingGenerator {
             bn.highlightNode(var, BayesNet.HIGHLIGHT_COLOR);
             info.updateVars(var, null, null, null);
 
-            lang.nextStep();
+            nextStep();
 
-            double p = bn.probabilities.get(bn.key(var, bn.parents(var)));
+            double p = engine.probability(var);
 
             info.updateVars(var, null, p, null);
 
             code.unhighlight(1);
             code.highlight(2);
 
-            lang.nextStep();
+            nextStep();
 
             for(String child: bn.children(var)) {
 
@@ -275,9 +392,9 @@ public class GibbsSampling implements ValidatingGenerator {
 
                 info.updateVars(var, child, p, -1.0);
 
-                lang.nextStep();
+                nextStep();
 
-                double prob = bn.probabilities.get(bn.key(child, bn.parents(child)));
+                double prob = engine.childProbability(child, var);
 
                 p *= prob;
 
@@ -286,58 +403,53 @@ public class GibbsSampling implements ValidatingGenerator {
                 code.unhighlight(3);
                 code.highlight(4);
 
-                bn.highlightNode(child, bn.values.get(child) ? BayesNet.TRUE_COLOR : BayesNet.FALSE_COLOR);
+                bn.highlightNode(child, engine.getValue(child) ? BayesNet.TRUE_COLOR : BayesNet.FALSE_COLOR);
 
-                lang.nextStep();
+                nextStep();
             }
 
             code.unhighlight(4);
             code.highlight(5);
 
-            boolean value = createSampleValue(p);
+            // normalized against the Var=false branch
+            double normalized = engine.conditional(var);
+            info.updateNormalized(p, normalized);
+
+            boolean value = engine.createSampleValue(normalized);
 
-            bn.values.put(var, value);
+            engine.setValue(var, value);
 
             bn.highlightNode(var, value ? Color.GREEN : Color.RED);
 
-            lang.nextStep();
+            nextStep();
 
             code.unhighlight(5);
+
+            // burn-in and thinned iterations are not counted
+            if(!engine.isCounted()) continue;
+
             code.highlight(6);
 
 
-            increaseSampleCount(var, value);
+            engine.increaseSampleCount(var, value);
 
             info.updateInformation(iteration);
 
-            lang.nextStep();
+            nextStep();
 
             code.unhighlight(6);
         }
 
+        engine.endSweep();
+
         info.updateVars(null, null, null, null);
     }
 
-    private boolean createSampleValue(double p) {
-
-        return random.nextDouble() <= p;
+    // metrics of the current or last run, null before the first one
+    public SamplerMetrics getMetrics() {
+        return metrics;
     }
 
-    private void increaseSampleCount(String var, boolean value) {
-
-        String key = var + (value ? "=true" : "=false");
-        samples.put(key, (samples.get(key) == null ? 0 : samples.get(key)) + 1);
-
-        double trueVal = samples.get(var+"=true") == null ? 0 : samples.get(var+"=true");
-        double falseVal = samples.get(var+"=false") == null ? 0 : samples.get(var+"=false");
-        double sum = trueVal + falseVal;
-        sum = sum == 0 ? 1 : sum;
-        normalizedSamples.put(var+"=true", trueVal / sum);
-        normalizedSamples.put(var+"=false", falseVal / sum);
-    }
-
-
-
     /* Interface methods */
     public String getName() {
         return "Gibbs Sampling";
@@ -366,7 +478,7 @@ public class GibbsSampling implements ValidatingGenerator {
                 +"\n"
                 +"            p = p * P( ChildVar | parents(ChildVar) )"
                 +"\n"
-                +"        sampleValue = createValueGivenProbability(p)"
+                +"        sampleValue = createValueGivenProbability(normalize(p))"
                 +"\n"
                 +"        increaseSampleCount(Var, sampleValue)"
                 +"\n"
@@ -401,13 +513,22 @@ public class GibbsSampling implements ValidatingGenerator {
         if(numberOfIterations <= 0)
             throw new IllegalArgumentException("NumberOfSamples must be greater than 0.");
 
+        if(primitives.get("AnimatedIterations") != null && (int) primitives.get("AnimatedIterations") <= 0)
+            throw new IllegalArgumentException("AnimatedIterations must be greater than 0.");
+        if(primitives.get("FirstAnimatedIteration") != null && ((int) primitives.get("FirstAnimatedIteration") <= 0
+                || (int) primitives.get("FirstAnimatedIteration") > numberOfIterations))
+            throw new IllegalArgumentException("FirstAnimatedIteration must be between 1 and NumberOfSamples.");
+        if(primitives.get("SummaryInterval") != null && (int) primitives.get("SummaryInterval") <= 0)
+            throw new IllegalArgumentException("SummaryInterval must be greater than 0.");
+        if(primitives.get("BurnIn") != null && (int) primitives.get("BurnIn") < 0)
+            throw new IllegalArgumentException("BurnIn must not be negative.");
+        if(primitives.get("Thinning") != null && (int) primitives.get("Thinning") <= 0)
+            throw new IllegalArgumentException("Thinning must be greater than 0.");
+
         String[] vars = (String []) primitives.get("Variables");
         String[] sampleVars = (String []) primitives.get("Non-evidence variables");
         String[] values = (String []) primitives.get("Values");
 
-        if(vars.length > 4)
-            throw new IllegalArgumentException("Length of Variables must not be greater than 4.");
-
         if(sampleVars.length > vars.length)
             throw new IllegalArgumentException("Length of Non-evidence variables cannot be greater than length of Variables");
 
@@ -417,12 +538,12 @@ public class GibbsSampling implements ValidatingGenerator {
         if(vars.length - sampleVars.length != values.length)
             throw new IllegalArgumentException("Array 'Values' has an invalid form");
 
-        int[][] p = (int[][]) primitives.get("Probabilities");
+        double[][] p = BayesNet.toProbabilities(primitives.get("Probabilities"));
 
         for(int i = 0; i < p.length; i++) {
             for(int j = 0; j < p[i].length; j++) {
-                if(p[i][j] < 0 || p[i][j] > 100)
-                    throw new IllegalArgumentException("Probabilities table has invalid entries (< 0 or > 100).");
+                if(!(p[i][j] >= 0 && p[i][j] <= 1))
+                    throw new IllegalArgumentException("Probabilities table has invalid entries (< 0 % or > 100 %).");
             }
         }
 
@@ -459,7 +580,7 @@ public class GibbsSampling implements ValidatingGenerator {
         return true;
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 
         Generator generator = new GibbsSampling("resources/gibbssampling", Locale.GERMANY);
         generator.init();
@@ -468,7 +589,7 @@ public class GibbsSampling implements ValidatingGenerator {
 
             animal.main.Animal.startGeneratorWindow(generator);
 
-        } else if (args[0].equals("animation")) {
+        } else if (args[0].equals("animation") || args[0].equals("check-stream")) {
 
             Hashtable<String, Object> primitives = new Hashtable<>();
             AnimationPropertiesContainer props = new AnimationPropertiesContainer();
@@ -490,15 +611,7 @@ public class GibbsSampling implements ValidatingGenerator {
             graphProps.set(AnimationPropertiesKeys.NODECOLOR_PROPERTY, Color.BLACK);
             graphProps.set(AnimationPropertiesKeys.WEIGHTED_PROPERTY, false);
 
-            int[][] adjacencyMatrix = new int[4][4];
-            for(int i = 0; i < adjacencyMatrix.length; i++)
-                for(int j = 0; j < adjacencyMatrix.length; j++)
-                    adjacencyMatrix[i][j] = 0;
-
-            adjacencyMatrix[0][1] = 1;
-            adjacencyMatrix[0][2] = 1;
-            adjacencyMatrix[1][3] = 1;
-            adjacencyMatrix[2][3] = 1;
+            int[][] adjacencyMatrix = exampleAdjacencyMatrix();
 
             Node[] nodes = new Node[4];
             int offsetX = 600; int offsetY = 180;
@@ -512,19 +625,7 @@ public class GibbsSampling implements ValidatingGenerator {
 
             primitives.put("graph", graph);
 
-            int[][] p = new int[4][4];
-
-            p[0][0] = 30;   // P(Y)
-            p[0][1] = 10;   // P(A|Y=true)
-            p[1][1] = 20;   // P(A|Y=false)
-            p[0][2] = 40;   // P(X|Y=true)
-            p[1][2] = 70;   // P(X|Y=false)
-            p[0][3] = 90;   // P(B | A=true, X=true)
-            p[1][3] = 99;   // P(B | A=true, X=false)
-            p[2][3] = 30;   // P(B | A=false, X=true)
-            p[3][3] = 60;   // P(B | A=false, X=false)
-
-            primitives.put("Probabilities", p);
+            primitives.put("Probabilities", exampleProbabilities());
 
             primitives.put("Highlight Color", Color.GRAY);
             primitives.put("Select Color", Color.LIGHT_GRAY);
@@ -539,7 +640,134 @@ public class GibbsSampling implements ValidatingGenerator {
 
             props.add(sourceCodeProps);
 
-            System.out.println(generator.generate(props, primitives));
+            if(args[0].equals("animation")) {
+
+                // streamed, so the first steps are written before the sampling has finished
+                ((GibbsSampling) generator).generate(props, primitives, new PrintWriter(System.out));
+
+            } else {
+
+                // the streamed animation must be the same as the one returned as string,
+                // and generate() must still work on its own language after streaming
+                String expected = generator.generate(props, primitives);
+                generator.init();
+                StringWriter streamed = new StringWriter();
+                ((GibbsSampling) generator).generate(props, primitives, streamed);
+                String after = generator.generate(props, primitives);
+
+                if(!expected.equals(streamed.toString()))
+                    throw new IllegalStateException("Streamed output differs from generate() output");
+                if(!expected.equals(after))
+                    throw new IllegalStateException("generate() after streaming differs from generate() output");
+                System.out.println("Streamed output equals generate() output (" + expected.length() + " characters)");
+            }
+
+        } else if (args[0].equals("sample")) {
+
+            // headless: no Language, no animation output
+            int sweeps = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+            int chains = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+            // optional early stop once this effective sample size (and R-hat <= 1.01 for several chains) is reached
+            StopCondition stop = args.length > 3 ? new StopCondition(Double.parseDouble(args[3]), 1.01, 1000) : null;
+            // optional trace file of a single chain
+            Path traceFile = args.length > 4 ? Paths.get(args[4]) : null;
+
+            BayesNet bn = new BayesNet();
+            bn.init(new String[]{"Y", "A", "X", "B"}, new String[]{"Y", "X"}, exampleAdjacencyMatrix(),
+                    new String[]{"true", "false"}, BayesNet.toProbabilities(exampleProbabilities()));
+
+            CompiledNetwork net = CompiledNetwork.compile(bn);
+            FullConditionals conditionals = FullConditionals.compile(net);
+
+            if(chains == 1) {
+
+                SamplerMetrics metrics = new SamplerMetrics(net);
+                metrics.setTargetIterations(sweeps);
+                metrics.register("sample");
+
+                GibbsEngine engine = new GibbsEngine(net, new Xoshiro256(1234));
+                engine.setConditionals(conditionals);
+                engine.setMetrics(metrics);
+
+                TraceWriter trace = null;
+                try {
+                    trace = traceFile == null ? null : new TraceWriter(traceFile, net);
+                    engine.setTrace(trace);
+                    if(stop == null) engine.run(sweeps);
+                    else engine.run(sweeps, stop);
+                } finally {
+                    if(trace != null) trace.close();
+                    metrics.unregister();
+                }
+
+                System.out.println("Iteration: " + engine.getIteration());
+                if(stop != null) System.out.println("ESS: " + engine.getMonitor().minEss());
+                System.out.println(engine.getNormalizedSamples());
+                System.out.println(metrics.snapshot());
+
+            } else {
+
+                SamplerMetrics metrics = new SamplerMetrics(net);
+                metrics.setTargetIterations(sweeps);
+                metrics.register("sample");
+
+                MultiChainSampler sampler = new MultiChainSampler(net, chains, 1234);
+                sampler.setConditionals(conditionals);
+                sampler.setMetrics(metrics);
+                int done = sweeps;
+                try {
+                    if(stop == null) sampler.run(sweeps);
+                    else done = sampler.run(sweeps, stop);
+                } finally {
+                    metrics.unregister();
+                }
+
+                System.out.println("Chains: " + chains + ", Iteration: " + done);
+                if(stop != null) System.out.println("ESS: " + ConvergenceMonitor.minEss(sampler.getMonitors())
+                        + ", R-hat: " + ConvergenceMonitor.maxRhat(sampler.getMonitors()));
+                System.out.println(sampler.getNormalizedSamples());
+                System.out.println(metrics.snapshot());
+            }
+
+        } else if (args[0].equals("replay")) {
+
+            // statistics of a stored trace, without sampling
+            Trace trace = Trace.open(Paths.get(args[1]));
+            System.out.println("Records: " + trace.size() + ", Iterations: "
+                    + (trace.size() == 0 ? "-" : trace.iteration(0) + ".." + trace.iteration(trace.size() - 1)));
+            System.out.println(trace.counts().getNormalizedSamples());
         }
     }
+
+    private static int[][] exampleAdjacencyMatrix() {
+
+        int[][] adjacencyMatrix = new int[4][4];
+        for(int i = 0; i < adjacencyMatrix.length; i++)
+            for(int j = 0; j < adjacencyMatrix.length; j++)
+                adjacencyMatrix[i][j] = 0;
+
+        adjacencyMatrix[0][1] = 1;
+        adjacencyMatrix[0][2] = 1;
+        adjacencyMatrix[1][3] = 1;
+        adjacencyMatrix[2][3] = 1;
+
+        return adjacencyMatrix;
+    }
+
+    private static int[][] exampleProbabilities() {
+
+        int[][] p = new int[4][4];
+
+        p[0][0] = 30;   // P(Y)
+        p[0][1] = 10;   // P(A|Y=true)
+        p[1][1] = 20;   // P(A|Y=false)
+        p[0][2] = 40;   // P(X|Y=true)
+        p[1][2] = 70;   // P(X|Y=false)
+        p[0][3] = 90;   // P(B | A=true, X=true)
+        p[1][3] = 99;   // P(B | A=true, X=false)
+        p[2][3] = 30;   // P(B | A=false, X=true)
+        p[3][3] = 60;   // P(B | A=false, X=false)
+
+        return p;
+    }
 }